@@ -0,0 +1,60 @@
+package com.mishkaworld.cbu.bench;
+
+import com.mishkaworld.cbu.RuleSnapshot;
+import org.bukkit.configuration.file.YamlConfiguration;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+// Синтетический конфиг заданного размера: cmd0..cmdN с алиасами и списками значений,
+// плюс gamemode и супер-команда cmi из стандартного config.yml
+public final class BenchmarkRules {
+    private BenchmarkRules() {
+    }
+
+    public static YamlConfiguration config(int commands, boolean permissionCache) {
+        YamlConfiguration config = new YamlConfiguration();
+        config.set("permission-cache.enabled", permissionCache);
+        // Каждый вызов считается заново; повторное использование ответа меряет TabCompleteBenchmark.typingBurst
+        config.set("tab-complete.cache-ttl-ms", 0);
+
+        for (int i = 0; i < commands; i++) {
+            String path = "commands.cmd" + i;
+            config.set(path + ".permission", "bench.cmd" + i);
+            config.set(path + ".aliases", List.of("alias" + i));
+            config.set(path + ".arguments.arg#1.lists.first", "bench.cmd" + i + ".first");
+            config.set(path + ".arguments.arg#1.lists.second", "bench.cmd" + i + ".second");
+            config.set(path + ".arguments.arg#2.permission", "none");
+        }
+
+        config.set("commands.gamemode.permission", "cbu.allow.gamemode");
+        config.set("commands.gamemode.aliases", List.of("gm"));
+        config.set("commands.gamemode.arguments.arg#1.lists.survival", "cbu.allow.gamemode.survival");
+        config.set("commands.gamemode.arguments.arg#1.lists.creative", "cbu.allow.gamemode.creative");
+
+        config.set("super-commands.cmi.subcommands.fly.permission", "cmi.command.fly");
+        config.set("super-commands.cmi.subcommands.fly.arguments.arg#1.lists.on", "cmi.command.fly.on");
+        config.set("super-commands.cmi.subcommands.fly.arguments.arg#1.lists.off", "cmi.command.fly.off");
+        return config;
+    }
+
+    public static RuleSnapshot snapshot(int commands, boolean permissionCache) {
+        return RuleSnapshot.compile(config(commands, permissionCache));
+    }
+
+    // Права "обычного" игрока: половина команд и все значения gamemode/cmi
+    public static Set<String> permissions(int commands) {
+        Set<String> permissions = new HashSet<>();
+        for (int i = 0; i < commands; i += 2) {
+            permissions.add("bench.cmd" + i);
+            permissions.add("bench.cmd" + i + ".first");
+        }
+        permissions.add("cbu.allow.gamemode");
+        permissions.add("cbu.allow.gamemode.creative");
+        permissions.add("cbu.allow.gamemode.survival");
+        permissions.add("cmi.command.fly");
+        permissions.add("cmi.command.fly.on");
+        return permissions;
+    }
+}
@@ -0,0 +1,20 @@
+package com.mishkaworld.cbu.bench;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+// Запуск JMH всегда с -prof gc: кроме ns/op в отчёте есть gc.alloc.rate.norm (байт на операцию).
+// Остальные аргументы - обычные аргументы JMH, например фильтр бенчмарков или -p commands=1000
+public final class BenchmarkRunner {
+    private BenchmarkRunner() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
@@ -0,0 +1,39 @@
+package com.mishkaworld.cbu.bench;
+
+import com.mishkaworld.cbu.CommandBlockerUltra;
+import com.mishkaworld.cbu.CommandLine;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParseCommandBenchmark {
+    @Param({"/gamemode creative", "/cmi fly on Steve", "/tp   Steve   100 64 -200"})
+    public String message;
+
+    private final CommandLine commandLine = new CommandLine();
+
+    @Benchmark
+    public CommandBlockerUltra.CommandInfo parseCommand() {
+        return CommandBlockerUltra.parseCommand(message);
+    }
+
+    @Benchmark
+    public CommandLine commandLine() {
+        return commandLine.parse(message);
+    }
+}
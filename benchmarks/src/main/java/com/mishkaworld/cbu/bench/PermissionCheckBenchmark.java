@@ -0,0 +1,67 @@
+package com.mishkaworld.cbu.bench;
+
+import com.mishkaworld.cbu.CommandLine;
+import com.mishkaworld.cbu.PermissionChecker;
+import org.bukkit.entity.Player;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// checkPermission для прямого попадания, алиаса, супер-команды и промаха
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PermissionCheckBenchmark {
+    @Param({"10", "1000", "10000"})
+    public int commands;
+
+    // Стоимость одного Player.hasPermission в токенах Blackhole.consumeCPU
+    @Param({"0", "200"})
+    public long permissionCost;
+
+    @Param({"false", "true"})
+    public boolean permissionCache;
+
+    private PermissionChecker permissionChecker;
+    private Player player;
+    private final CommandLine commandLine = new CommandLine();
+
+    @Setup
+    public void setup() {
+        permissionChecker = BenchmarkRules.snapshot(commands, permissionCache).getPermissionChecker();
+        player = StubPlayers.create("Steve", BenchmarkRules.permissions(commands), permissionCost);
+    }
+
+    @Benchmark
+    public PermissionChecker.PermissionResult directHit() {
+        return permissionChecker.checkPermission(player, commandLine.parse("/gamemode creative"));
+    }
+
+    @Benchmark
+    public PermissionChecker.PermissionResult aliasHit() {
+        return permissionChecker.checkPermission(player, commandLine.parse("/gm creative"));
+    }
+
+    @Benchmark
+    public PermissionChecker.PermissionResult superCommandHit() {
+        return permissionChecker.checkPermission(player, commandLine.parse("/cmi fly on"));
+    }
+
+    @Benchmark
+    public PermissionChecker.PermissionResult miss() {
+        return permissionChecker.checkPermission(player, commandLine.parse("/unknowncommand arg"));
+    }
+}
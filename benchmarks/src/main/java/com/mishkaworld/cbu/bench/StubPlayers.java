@@ -0,0 +1,58 @@
+package com.mishkaworld.cbu.bench;
+
+import org.bukkit.entity.Player;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.lang.reflect.Proxy;
+import java.util.Set;
+import java.util.UUID;
+
+// Заглушка Player без сервера: права задаются набором строк, стоимость hasPermission -
+// числом "токенов" Blackhole.consumeCPU, чтобы имитировать дорогие контексты LuckPerms
+public final class StubPlayers {
+    private StubPlayers() {
+    }
+
+    public static Player create(String name, Set<String> permissions, long permissionCostTokens) {
+        UUID uuid = UUID.nameUUIDFromBytes(name.getBytes());
+
+        return (Player) Proxy.newProxyInstance(Player.class.getClassLoader(), new Class<?>[]{Player.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "hasPermission":
+                            if (permissionCostTokens > 0) {
+                                Blackhole.consumeCPU(permissionCostTokens);
+                            }
+                            return args[0] instanceof String && permissions.contains(args[0]);
+                        case "getName":
+                            return name;
+                        case "getUniqueId":
+                            return uuid;
+                        case "canSee":
+                            return true;
+                        case "isOnline":
+                            return true;
+                        case "hashCode":
+                            return uuid.hashCode();
+                        case "equals":
+                            return proxy == args[0];
+                        case "toString":
+                            return "StubPlayer{" + name + "}";
+                        default:
+                            return defaultValue(method.getReturnType());
+                    }
+                });
+    }
+
+    private static Object defaultValue(Class<?> type) {
+        if (!type.isPrimitive() || type == void.class) return null;
+        if (type == boolean.class) return false;
+        if (type == char.class) return '\0';
+        if (type == long.class) return 0L;
+        if (type == float.class) return 0f;
+        if (type == double.class) return 0d;
+        if (type == byte.class) return (byte) 0;
+        if (type == short.class) return (short) 0;
+        return 0;
+    }
+}
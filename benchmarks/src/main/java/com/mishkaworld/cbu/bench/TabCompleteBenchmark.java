@@ -0,0 +1,107 @@
+package com.mishkaworld.cbu.bench;
+
+import com.mishkaworld.cbu.PlayerNameIndex;
+import com.mishkaworld.cbu.RateLimiter;
+import com.mishkaworld.cbu.RuleSnapshot;
+import com.mishkaworld.cbu.TabCompleteManager;
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.bukkit.entity.Player;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+// TabCompleteManager.complete на разных уровнях: корень, префикс команды, список значений, имена игроков
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TabCompleteBenchmark {
+    @Param({"10", "1000", "10000"})
+    public int commands;
+
+    @Param({"0", "200"})
+    public long permissionCost;
+
+    @Param({"500"})
+    public int onlinePlayers;
+
+    // Набор "/gamemode creative" по одной букве, как его присылает клиент
+    private static final String[] TYPING = {
+            "/", "/g", "/ga", "/gam", "/game", "/gamemode", "/gamemode ", "/gamemode c", "/gamemode cr", "/gamemode cre"
+    };
+
+    private TabCompleteManager tabCompleteManager;
+    private TabCompleteManager cachingTabCompleteManager;
+    private Player player;
+
+    @Setup
+    public void setup() {
+        RuleSnapshot snapshot = BenchmarkRules.snapshot(commands, true);
+
+        PlayerNameIndex playerNameIndex = new PlayerNameIndex();
+        for (int i = 0; i < onlinePlayers; i++) {
+            playerNameIndex.add(StubPlayers.create("Player" + i, Set.of(), 0));
+        }
+
+        tabCompleteManager = new TabCompleteManager(() -> snapshot, playerNameIndex, new RateLimiter());
+
+        YamlConfiguration cachingConfig = BenchmarkRules.config(commands, true);
+        cachingConfig.set("tab-complete.cache-ttl-ms", 60_000);
+        RuleSnapshot cachingSnapshot = RuleSnapshot.compile(cachingConfig);
+        cachingTabCompleteManager = new TabCompleteManager(() -> cachingSnapshot, playerNameIndex, new RateLimiter());
+        player = StubPlayers.create("Steve", BenchmarkRules.permissions(commands), permissionCost);
+    }
+
+    @Benchmark
+    public List<String> rootPrefix() {
+        return tabCompleteManager.complete(player, "/cmd1");
+    }
+
+    @Benchmark
+    public List<String> listValue() {
+        return tabCompleteManager.complete(player, "/gamemode c");
+    }
+
+    @Benchmark
+    public List<String> subCommandArgument() {
+        return tabCompleteManager.complete(player, "/cmi fly o");
+    }
+
+    @Benchmark
+    public List<String> playerName() {
+        return tabCompleteManager.complete(player, "/cmd0 first Player1");
+    }
+
+    // Серия запросов при наборе команды: ответы сужаются из предыдущего, а не считаются заново
+    @Benchmark
+    public int typingBurst() {
+        int total = 0;
+        for (String buffer : TYPING) {
+            total += cachingTabCompleteManager.complete(player, buffer).size();
+        }
+        return total;
+    }
+
+    @Benchmark
+    public int typingBurstUncached() {
+        int total = 0;
+        for (String buffer : TYPING) {
+            total += tabCompleteManager.complete(player, buffer).size();
+        }
+        return total;
+    }
+}
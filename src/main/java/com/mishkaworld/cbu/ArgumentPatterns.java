@@ -0,0 +1,242 @@
+package com.mishkaworld.cbu;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+// Шаблоны значений одного arg#N. Строка конфига: "<шаблон> [право]", где шаблон -
+// регулярное выражение (начинается с ^), диапазон чисел (1..64, ..10, -5..) или glob (diamond_*).
+// Все регулярные выражения и glob склеиваются в одно выражение-альтернативу (обычный матчер
+// с возвратами, а не автомат), диапазоны - в таблицу границ. Выражения, которым склейка меняет
+// смысл (\1, именованные группы, флаги (?i)), компилируются отдельно и проверяются после общего.
+public final class ArgumentPatterns {
+    private static final Pattern RANGE = Pattern.compile("(-?\\d{1,18})?\\.\\.(-?\\d{1,18})?");
+
+    private final String[] sources;
+    private final String[] permissions;
+
+    // Общее выражение: альтернатива i - группа groupIndexes[i], номер правила - patternRules[i]
+    private final Pattern combined;
+    private final int[] groupIndexes;
+    private final int[] patternRules;
+
+    // Выражения вне склейки, по возрастанию номера правила
+    private final Pattern[] standalonePatterns;
+    private final int[] standaloneRules;
+
+    private final long[] rangeMin;
+    private final long[] rangeMax;
+    private final int[] rangeRules;
+
+    private ArgumentPatterns(String[] sources, String[] permissions, Pattern combined, int[] groupIndexes,
+                             int[] patternRules, Pattern[] standalonePatterns, int[] standaloneRules,
+                             long[] rangeMin, long[] rangeMax, int[] rangeRules) {
+        this.sources = sources;
+        this.permissions = permissions;
+        this.combined = combined;
+        this.groupIndexes = groupIndexes;
+        this.patternRules = patternRules;
+        this.standalonePatterns = standalonePatterns;
+        this.standaloneRules = standaloneRules;
+        this.rangeMin = rangeMin;
+        this.rangeMax = rangeMax;
+        this.rangeRules = rangeRules;
+    }
+
+    // Неверное регулярное выражение - IllegalArgumentException: перезагрузка оставит прежние правила
+    public static ArgumentPatterns compile(List<String> entries) {
+        List<String> sources = new ArrayList<>();
+        List<String> permissions = new ArrayList<>();
+        StringBuilder combined = new StringBuilder();
+        List<Integer> groupIndexes = new ArrayList<>();
+        List<Integer> patternRules = new ArrayList<>();
+        List<Pattern> standalonePatterns = new ArrayList<>();
+        List<Integer> standaloneRules = new ArrayList<>();
+        List<long[]> ranges = new ArrayList<>();
+        List<Integer> rangeRules = new ArrayList<>();
+        int nextGroup = 1;
+
+        for (String entry : entries) {
+            String[] parts = entry.trim().split("\\s+", 2);
+            if (parts[0].isEmpty()) continue;
+
+            int rule = sources.size();
+            String source = parts[0];
+            sources.add(source);
+            permissions.add(parts.length > 1 ? parts[1].trim() : null);
+
+            Matcher range = RANGE.matcher(source);
+            if (!source.startsWith("^") && range.matches() && (range.group(1) != null || range.group(2) != null)) {
+                long min = range.group(1) != null ? Long.parseLong(range.group(1)) : Long.MIN_VALUE;
+                long max = range.group(2) != null ? Long.parseLong(range.group(2)) : Long.MAX_VALUE;
+                if (min > max) {
+                    throw new IllegalArgumentException("Пустой диапазон шаблона: " + source);
+                }
+                ranges.add(new long[]{min, max});
+                rangeRules.add(rule);
+                continue;
+            }
+
+            String regex = source.startsWith("^") ? source : globToRegex(source);
+            Pattern pattern;
+            try {
+                pattern = Pattern.compile(regex);
+            } catch (PatternSyntaxException e) {
+                throw new IllegalArgumentException("Неверный шаблон аргумента '" + source + "': " + e.getDescription(), e);
+            }
+
+            if (!isCombinable(regex)) {
+                standalonePatterns.add(pattern);
+                standaloneRules.add(rule);
+                continue;
+            }
+
+            int ownGroups = pattern.matcher("").groupCount();
+            if (combined.length() > 0) combined.append('|');
+            combined.append('(').append(regex).append(')');
+            groupIndexes.add(nextGroup);
+            patternRules.add(rule);
+            nextGroup += 1 + ownGroups;
+        }
+
+        long[] rangeMin = new long[ranges.size()];
+        long[] rangeMax = new long[ranges.size()];
+        for (int i = 0; i < ranges.size(); i++) {
+            rangeMin[i] = ranges.get(i)[0];
+            rangeMax[i] = ranges.get(i)[1];
+        }
+
+        return new ArgumentPatterns(
+                sources.toArray(new String[0]),
+                permissions.toArray(new String[0]),
+                groupIndexes.isEmpty() ? null : Pattern.compile(combined.toString()),
+                toIntArray(groupIndexes),
+                toIntArray(patternRules),
+                standalonePatterns.toArray(new Pattern[0]),
+                toIntArray(standaloneRules),
+                rangeMin,
+                rangeMax,
+                toIntArray(rangeRules));
+    }
+
+    // Внутри общей альтернативы номера групп сдвигаются, а имена групп могут повториться:
+    // обратные ссылки (\1, \k<name>), именованные группы и встроенные флаги оставляем отдельными
+    private static boolean isCombinable(String regex) {
+        for (int i = 0; i < regex.length() - 1; i++) {
+            char c = regex.charAt(i);
+            char next = regex.charAt(i + 1);
+            if (c == '\\') {
+                if ((next >= '1' && next <= '9') || next == 'k') return false;
+                i++;
+            } else if (c == '(' && next == '?' && i + 2 < regex.length()) {
+                char kind = regex.charAt(i + 2);
+                if (kind == '<' && i + 3 < regex.length() && Character.isLetter(regex.charAt(i + 3))) return false;
+                if ("idmsuxU-".indexOf(kind) >= 0) return false;
+            }
+        }
+        return true;
+    }
+
+    private static String globToRegex(String glob) {
+        StringBuilder regex = new StringBuilder();
+        int literalStart = 0;
+        for (int i = 0; i < glob.length(); i++) {
+            char c = glob.charAt(i);
+            if (c != '*' && c != '?') continue;
+
+            if (i > literalStart) regex.append(Pattern.quote(glob.substring(literalStart, i)));
+            regex.append(c == '*' ? ".*" : ".");
+            literalStart = i + 1;
+        }
+        if (literalStart < glob.length()) regex.append(Pattern.quote(glob.substring(literalStart)));
+        return regex.toString();
+    }
+
+    private static int[] toIntArray(List<Integer> values) {
+        int[] result = new int[values.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = values.get(i);
+        }
+        return result;
+    }
+
+    public boolean isEmpty() {
+        return sources.length == 0;
+    }
+
+    // Номер первого (в порядке конфига) подходящего правила или -1
+    public int match(String text, int start, int end) {
+        int best = Integer.MAX_VALUE;
+
+        if (rangeRules.length > 0 && isInteger(text, start, end)) {
+            long value = parseInteger(text, start, end);
+            for (int i = 0; i < rangeRules.length; i++) {
+                if (value >= rangeMin[i] && value <= rangeMax[i]) {
+                    best = rangeRules[i];
+                    break;
+                }
+            }
+        }
+
+        if (combined != null) {
+            Matcher matcher = combined.matcher(text).region(start, end);
+            if (matcher.matches()) {
+                // Сработала самая левая альтернатива, то есть первая по порядку в конфиге
+                for (int i = 0; i < groupIndexes.length; i++) {
+                    if (matcher.start(groupIndexes[i]) >= 0) {
+                        best = Math.min(best, patternRules[i]);
+                        break;
+                    }
+                }
+            }
+        }
+
+        for (int i = 0; i < standaloneRules.length && standaloneRules[i] < best; i++) {
+            if (standalonePatterns[i].matcher(text).region(start, end).matches()) {
+                best = standaloneRules[i];
+                break;
+            }
+        }
+
+        return best == Integer.MAX_VALUE ? -1 : best;
+    }
+
+    public int match(CommandLine line, int token) {
+        return match(line.getMessage(), line.start(token), line.end(token));
+    }
+
+    public String getPermission(int rule) {
+        return permissions[rule];
+    }
+
+    public String getSource(int rule) {
+        return sources[rule];
+    }
+
+    // Не больше 18 цифр со знаком - гарантированно помещается в long
+    static boolean isInteger(String text, int start, int end) {
+        int index = start;
+        if (index < end && (text.charAt(index) == '-' || text.charAt(index) == '+')) index++;
+        if (index == end || end - index > 18) return false;
+
+        for (; index < end; index++) {
+            char c = text.charAt(index);
+            if (c < '0' || c > '9') return false;
+        }
+        return true;
+    }
+
+    // Только после isInteger: без исключений и упаковки
+    static long parseInteger(String text, int start, int end) {
+        boolean negative = text.charAt(start) == '-';
+        int index = negative || text.charAt(start) == '+' ? start + 1 : start;
+
+        long value = 0;
+        for (; index < end; index++) {
+            value = value * 10 + (text.charAt(index) - '0');
+        }
+        return negative ? -value : value;
+    }
+}
@@ -0,0 +1,193 @@
+package com.mishkaworld.cbu;
+
+import java.util.Locale;
+
+// Типизированное значение аргумента (ключ type в arg#N):
+//   int 1..64      - целое в диапазоне (границы можно опускать: "int ..64", "int")
+//   coord 1000     - координата: число, ~смещение или ^смещение, по модулю не больше 1000
+//   duration 1h    - длительность вида 30s, 5m, 1h30m, 100t (тики), число без единицы - секунды
+// Токен разбирается прямо в сообщении в примитивы: без подстрок, Integer.parseInt и исключений.
+public final class ArgumentType {
+    private enum Kind { INT, COORD, DURATION }
+
+    private final Kind kind;
+    private final String source;
+    private final long min;
+    private final long max;
+    // Предел coord как double, чтобы не переводить при каждой проверке
+    private final double maxDistance;
+
+    private ArgumentType(Kind kind, String source, long min, long max) {
+        this.kind = kind;
+        this.source = source;
+        this.min = min;
+        this.max = max;
+        this.maxDistance = max;
+    }
+
+    // Неверное описание - IllegalArgumentException: перезагрузка оставит прежние правила
+    public static ArgumentType parse(String spec) {
+        String source = spec.trim();
+        String[] parts = source.split("\\s+", 2);
+        String bound = parts.length > 1 ? parts[1].trim() : "";
+
+        switch (parts[0].toLowerCase(Locale.ROOT)) {
+            case "int":
+                return parseInt(source, bound);
+            case "coord":
+                if (bound.isEmpty()) return new ArgumentType(Kind.COORD, source, 0, Long.MAX_VALUE);
+                if (!ArgumentPatterns.isInteger(bound, 0, bound.length()) || bound.startsWith("-")) {
+                    throw new IllegalArgumentException("Неверный предел coord: " + source);
+                }
+                return new ArgumentType(Kind.COORD, source, 0, ArgumentPatterns.parseInteger(bound, 0, bound.length()));
+            case "duration":
+                if (bound.isEmpty()) return new ArgumentType(Kind.DURATION, source, 0, Long.MAX_VALUE);
+                long maxTicks = parseDurationTicks(stripLessOrEqual(bound));
+                if (maxTicks < 0) {
+                    throw new IllegalArgumentException("Неверный предел duration: " + source);
+                }
+                return new ArgumentType(Kind.DURATION, source, 0, maxTicks);
+            default:
+                throw new IllegalArgumentException("Неизвестный тип аргумента: " + source);
+        }
+    }
+
+    // "duration <=1h" и "duration ≤ 1h" - то же, что "duration 1h"
+    private static String stripLessOrEqual(String bound) {
+        if (bound.startsWith("<=")) return bound.substring(2).trim();
+        if (bound.startsWith("≤")) return bound.substring(1).trim();
+        return bound;
+    }
+
+    private static ArgumentType parseInt(String source, String bound) {
+        if (bound.isEmpty()) return new ArgumentType(Kind.INT, source, Long.MIN_VALUE, Long.MAX_VALUE);
+
+        int dots = bound.indexOf("..");
+        if (dots < 0) {
+            throw new IllegalArgumentException("Диапазон int задаётся как min..max: " + source);
+        }
+        long min = dots == 0 ? Long.MIN_VALUE : parseBound(source, bound, 0, dots);
+        long max = dots + 2 == bound.length() ? Long.MAX_VALUE : parseBound(source, bound, dots + 2, bound.length());
+        if (min > max) {
+            throw new IllegalArgumentException("Пустой диапазон int: " + source);
+        }
+        return new ArgumentType(Kind.INT, source, min, max);
+    }
+
+    private static long parseBound(String source, String text, int start, int end) {
+        if (!ArgumentPatterns.isInteger(text, start, end)) {
+            throw new IllegalArgumentException("Неверная граница диапазона: " + source);
+        }
+        return ArgumentPatterns.parseInteger(text, start, end);
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    public boolean accepts(CommandLine line, int token) {
+        return accepts(line.getMessage(), line.start(token), line.end(token));
+    }
+
+    public boolean accepts(String text, int start, int end) {
+        switch (kind) {
+            case INT:
+                if (!ArgumentPatterns.isInteger(text, start, end)) return false;
+                long value = ArgumentPatterns.parseInteger(text, start, end);
+                return value >= min && value <= max;
+            case COORD:
+                return acceptsCoordinate(text, start, end);
+            default:
+                long ticks = parseDurationTicks(text, start, end);
+                return ticks >= 0 && ticks <= max;
+        }
+    }
+
+    // "~" и "^" без числа - позиция самого отправителя, всегда в пределах
+    private boolean acceptsCoordinate(String text, int start, int end) {
+        if (start < end && (text.charAt(start) == '~' || text.charAt(start) == '^')) {
+            start++;
+            if (start == end) return true;
+        }
+        double value = parseDecimal(text, start, end);
+        return !Double.isNaN(value) && Math.abs(value) <= maxDistance;
+    }
+
+    // NaN - не число. Не больше 18 цифр, как и у целых: длинные числа отвергаются без переполнения
+    private static double parseDecimal(String text, int start, int end) {
+        int index = start;
+        boolean negative = false;
+        if (index < end && (text.charAt(index) == '-' || text.charAt(index) == '+')) {
+            negative = text.charAt(index) == '-';
+            index++;
+        }
+        long digits = 0;
+        long scale = 1;
+        int digitCount = 0;
+        boolean point = false;
+        for (; index < end; index++) {
+            char c = text.charAt(index);
+            if (c == '.' && !point) {
+                point = true;
+            } else if (c >= '0' && c <= '9' && digitCount < 18) {
+                digits = digits * 10 + (c - '0');
+                if (point) scale *= 10;
+                digitCount++;
+            } else {
+                return Double.NaN;
+            }
+        }
+        if (digitCount == 0) return Double.NaN;
+
+        double value = (double) digits / scale;
+        return negative ? -value : value;
+    }
+
+    private static long parseDurationTicks(String text) {
+        return parseDurationTicks(text, 0, text.length());
+    }
+
+    // Длительность в тиках или -1. Части число+единица идут подряд: 1h30m. Переполнение - -1
+    private static long parseDurationTicks(String text, int start, int end) {
+        if (start == end) return -1;
+
+        long total = 0;
+        int index = start;
+        while (index < end) {
+            int digitsStart = index;
+            long value = 0;
+            while (index < end && text.charAt(index) >= '0' && text.charAt(index) <= '9') {
+                if (index - digitsStart >= 12) return -1;
+                value = value * 10 + (text.charAt(index) - '0');
+                index++;
+            }
+            if (index == digitsStart) return -1;
+
+            long ticksPerUnit;
+            if (index == end) {
+                // Число без единицы допустимо только целиком ("600")
+                if (digitsStart != start) return -1;
+                ticksPerUnit = 20;
+            } else {
+                ticksPerUnit = unitTicks(text.charAt(index));
+                if (ticksPerUnit < 0) return -1;
+                index++;
+            }
+
+            total += value * ticksPerUnit;
+            if (total < 0) return -1;
+        }
+        return total;
+    }
+
+    private static long unitTicks(char unit) {
+        switch (Character.toLowerCase(unit)) {
+            case 't': return 1;
+            case 's': return 20;
+            case 'm': return 20 * 60;
+            case 'h': return 20 * 60 * 60;
+            case 'd': return 20 * 60 * 60 * 24;
+            default: return -1;
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package com.mishkaworld.cbu;
+
+import com.destroystokyo.paper.event.server.AsyncTabCompleteEvent;
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.Listener;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+// Автодополнение в потоке netty через Paper AsyncTabCompleteEvent.
+// Работает с неизменяемым снимком правил RuleSnapshot, основной поток не затрагивается;
+// обработанное событие помечается handled, и синхронный TabCompleteEvent уже не вызывается.
+public class AsyncTabCompleteListener implements Listener {
+    private final Supplier<RuleSnapshot> rules;
+    private final TabCompleteManager tabCompleteManager;
+
+    public AsyncTabCompleteListener(Supplier<RuleSnapshot> rules, TabCompleteManager tabCompleteManager) {
+        this.rules = rules;
+        this.tabCompleteManager = tabCompleteManager;
+    }
+
+    @EventHandler
+    public void onAsyncTabComplete(AsyncTabCompleteEvent event) {
+        // Выключено в конфиге - оставляем событие синхронному TabCompleteManager
+        if (!rules.get().isAsyncTabComplete()) return;
+        if (!event.isCommand() || event.isHandled()) return;
+        if (!(event.getSender() instanceof Player)) return;
+
+        String buffer = event.getBuffer();
+        if (buffer == null || !buffer.startsWith("/")) return;
+
+        List<String> suggestions = tabCompleteManager.complete((Player) event.getSender(), buffer);
+
+        // Отдаём все варианты одним пакетом в виде Completion
+        List<AsyncTabCompleteEvent.Completion> completions = new ArrayList<>(suggestions.size());
+        for (String suggestion : suggestions) {
+            completions.add(AsyncTabCompleteEvent.Completion.completion(suggestion));
+        }
+
+        event.completions(completions);
+        event.setHandled(true);
+    }
+}
@@ -0,0 +1,312 @@
+package com.mishkaworld.cbu;
+
+import org.bukkit.configuration.file.FileConfiguration;
+import org.bukkit.entity.Player;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.GZIPOutputStream;
+
+// Журнал решений по командам. Обработчик команды только кладёт запись в ограниченное
+// кольцо без блокировок (очередь Вьюкова), диск и логгер сервера трогает один фоновый поток:
+// забирает записи пачками и пишет в logs/audit-ГГГГ-ММ-ДД.log.gz (строки через табуляцию).
+// Кольцо и поток создаются, только когда включён audit.console или audit.file.
+public class AuditLog {
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSS");
+    private static final int BATCH_SIZE = 256;
+
+    public enum OverflowPolicy {
+        // Запись теряется, счётчик потерь попадает в журнал
+        DROP,
+        // Основной поток ждёт, пока писатель освободит место
+        BLOCK
+    }
+
+    private final File directory;
+    private final Logger logger;
+    private final ZoneId zone = ZoneId.systemDefault();
+
+    // Кольцо: sequences[i] говорит, чья очередь у ячейки i - производителя или писателя.
+    // Заполняется в start() до публикации writerThread
+    private int mask;
+    private AtomicLongArray sequences;
+    private long[] timestamps;
+    private long[] uuidMost;
+    private long[] uuidLeast;
+    private String[] names;
+    private String[] commands;
+    private String[] matchedRules;
+    private boolean[] decisions;
+    private final AtomicLong tail = new AtomicLong();
+    private long head;
+
+    private final AtomicLong dropped = new AtomicLong();
+    // null, пока журнал ни разу не включали
+    private volatile Thread writerThread;
+    private volatile boolean running = true;
+
+    private volatile boolean logMode;
+    private volatile boolean fileMode;
+    private volatile boolean includeAllowed;
+    private volatile OverflowPolicy overflowPolicy = OverflowPolicy.DROP;
+    private volatile long flushIntervalNanos;
+
+    // Состояние писателя, доступно только из writerThread
+    private Writer out;
+    private long dayStart;
+    private long dayEnd;
+
+    public AuditLog(File directory, Logger logger, FileConfiguration config) {
+        this.directory = directory;
+        this.logger = logger;
+        configure(config);
+    }
+
+    // Размер кольца задаётся при первом включении и дальше меняется только при перезапуске,
+    // остальное - при /cbu reload
+    public void configure(FileConfiguration config) {
+        // Старые log-mode и file-mode в корне конфига журнал не включают: они стояли в true
+        // в прежних конфигах, когда ничего не делали, и после обновления залили бы консоль
+        this.logMode = config.getBoolean("audit.console", false);
+        this.fileMode = config.getBoolean("audit.file", false);
+        this.includeAllowed = config.getBoolean("audit.include-allowed", true);
+        this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(10, config.getLong("audit.flush-interval-ms", 1000)));
+
+        String policy = config.getString("audit.overflow", "drop");
+        this.overflowPolicy = "block".equalsIgnoreCase(policy) ? OverflowPolicy.BLOCK : OverflowPolicy.DROP;
+
+        if (isEnabled()) {
+            start(config.getInt("audit.buffer-size", 8192));
+        }
+    }
+
+    private synchronized void start(int bufferSize) {
+        if (writerThread != null || !running) return;
+
+        int capacity = Integer.highestOneBit(Math.max(64, bufferSize) - 1) << 1;
+        this.mask = capacity - 1;
+        this.sequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            sequences.set(i, i);
+        }
+        this.timestamps = new long[capacity];
+        this.uuidMost = new long[capacity];
+        this.uuidLeast = new long[capacity];
+        this.names = new String[capacity];
+        this.commands = new String[capacity];
+        this.matchedRules = new String[capacity];
+        this.decisions = new boolean[capacity];
+
+        Thread writer = new Thread(this::runWriter, "CBU-Audit");
+        writer.setDaemon(true);
+        writerThread = writer;
+        writer.start();
+    }
+
+    public boolean isEnabled() {
+        return logMode || fileMode;
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    public void record(Player player, String command, PermissionChecker.PermissionResult result) {
+        // Чтение writerThread публикует кольцо, созданное в start()
+        Thread writer = writerThread;
+        if (writer == null || (result.allowed && !includeAllowed)) return;
+
+        long position;
+        while ((position = claim()) < 0) {
+            if (overflowPolicy == OverflowPolicy.DROP || !running) {
+                dropped.incrementAndGet();
+                return;
+            }
+            LockSupport.unpark(writer);
+            LockSupport.parkNanos(50_000L);
+        }
+
+        int index = (int) position & mask;
+        UUID uuid = player.getUniqueId();
+        timestamps[index] = System.currentTimeMillis();
+        uuidMost[index] = uuid.getMostSignificantBits();
+        uuidLeast[index] = uuid.getLeastSignificantBits();
+        names[index] = player.getName();
+        commands[index] = command;
+        matchedRules[index] = result.rule;
+        decisions[index] = result.allowed;
+
+        // Публикуем ячейку писателю
+        sequences.set(index, position + 1);
+    }
+
+    // Номер свободной ячейки или -1, если кольцо заполнено
+    private long claim() {
+        long position = tail.get();
+        while (true) {
+            long sequence = sequences.get((int) position & mask);
+            long difference = sequence - position;
+
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    return position;
+                }
+                position = tail.get();
+            } else if (difference < 0) {
+                return -1;
+            } else {
+                position = tail.get();
+            }
+        }
+    }
+
+    // Останавливает писателя, дописывая всё, что осталось в кольце
+    public synchronized void close() {
+        running = false;
+        Thread writer = writerThread;
+        if (writer == null) return;
+
+        LockSupport.unpark(writer);
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void runWriter() {
+        StringBuilder line = new StringBuilder(256);
+        long reportedDropped = 0;
+
+        while (true) {
+            boolean stopping = !running;
+            int drained;
+
+            do {
+                drained = drainBatch(line);
+            } while (drained == BATCH_SIZE);
+
+            long droppedNow = dropped.get();
+            if (droppedNow != reportedDropped) {
+                logger.warning("Журнал команд: буфер переполнен, потеряно записей: " + (droppedNow - reportedDropped));
+                reportedDropped = droppedNow;
+            }
+
+            flush();
+
+            if (stopping) break;
+            LockSupport.parkNanos(flushIntervalNanos);
+        }
+
+        closeFile();
+    }
+
+    private int drainBatch(StringBuilder line) {
+        boolean toFile = fileMode;
+        boolean toConsole = logMode;
+        int count = 0;
+
+        while (count < BATCH_SIZE) {
+            int index = (int) head & mask;
+            if (sequences.get(index) != head + 1) break;
+
+            long timestamp = timestamps[index];
+            line.setLength(0);
+            line.append(LocalDateTime.ofInstant(Instant.ofEpochMilli(timestamp), zone).format(TIME_FORMAT)).append('\t')
+                    .append(new UUID(uuidMost[index], uuidLeast[index])).append('\t')
+                    .append(names[index]).append('\t')
+                    .append(decisions[index] ? "ALLOW" : "BLOCK").append('\t')
+                    .append(matchedRules[index] != null ? matchedRules[index] : "-").append('\t');
+            appendSanitized(line, commands[index]);
+
+            names[index] = null;
+            commands[index] = null;
+            matchedRules[index] = null;
+            // Возвращаем ячейку производителям на следующий круг
+            sequences.set(index, head + mask + 1);
+            head++;
+            count++;
+
+            if (toConsole) {
+                logger.info(line.toString());
+            }
+            if (toFile) {
+                writeLine(timestamp, line);
+            }
+        }
+        return count;
+    }
+
+    private static void appendSanitized(StringBuilder line, String command) {
+        for (int i = 0; i < command.length(); i++) {
+            char c = command.charAt(i);
+            line.append(c == '\t' || c == '\n' || c == '\r' ? ' ' : c);
+        }
+    }
+
+    private void writeLine(long timestamp, StringBuilder line) {
+        try {
+            if (out == null || timestamp < dayStart || timestamp >= dayEnd) {
+                openFile(timestamp);
+            }
+            out.append(line).append('\n');
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Не удалось записать журнал команд", e);
+            closeFile();
+        }
+    }
+
+    // Новый gzip-член дописывается в конец файла дня: склеенные члены читаются как один файл
+    private void openFile(long timestamp) throws IOException {
+        closeFile();
+
+        LocalDate day = Instant.ofEpochMilli(timestamp).atZone(zone).toLocalDate();
+        dayStart = day.atStartOfDay(zone).toInstant().toEpochMilli();
+        dayEnd = day.plusDays(1).atStartOfDay(zone).toInstant().toEpochMilli();
+
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Не удалось создать папку " + directory);
+        }
+        File file = new File(directory, "audit-" + day + ".log.gz");
+        out = new BufferedWriter(new OutputStreamWriter(
+                new GZIPOutputStream(new FileOutputStream(file, true), 8192, true), StandardCharsets.UTF_8));
+    }
+
+    // syncFlush: после каждой пачки уже записанное можно прочитать, даже если сервер упадёт
+    private void flush() {
+        if (out == null) return;
+        try {
+            out.flush();
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Не удалось записать журнал команд", e);
+            closeFile();
+        }
+    }
+
+    private void closeFile() {
+        if (out == null) return;
+        try {
+            out.close();
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Не удалось закрыть журнал команд", e);
+        }
+        out = null;
+    }
+}
@@ -1,7 +1,10 @@
 package com.mishkaworld.cbu;
 
+import org.bukkit.block.Block;
+import org.bukkit.command.BlockCommandSender;
 import org.bukkit.command.CommandSender;
 import org.bukkit.entity.Player;
+import org.bukkit.entity.minecart.CommandMinecart;
 import org.bukkit.event.EventHandler;
 import org.bukkit.event.Listener;
 import org.bukkit.event.player.PlayerCommandPreprocessEvent;
@@ -9,17 +12,28 @@ import org.bukkit.event.server.ServerCommandEvent;
 import org.bukkit.event.player.PlayerCommandSendEvent;
 import org.bukkit.plugin.Plugin;
 
-import java.util.HashSet;
+import java.util.Collection;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
 
 public class CommandBlocker implements Listener {
     private final Plugin plugin;
-    private final PermissionChecker permissionChecker;
-    private final Set<String> blockedCommands = new HashSet<>();
+    private final Supplier<RuleSnapshot> rules;
+    private final AuditLog auditLog;
+    private final RateLimiter rateLimiter;
+    private final ShadowEvaluator shadow;
+    private final Set<String> blockedCommands = ConcurrentHashMap.newKeySet();
+    // Переиспользуемый разбор команды на поток: на Folia события игроков приходят из потоков регионов
+    private final ThreadLocal<CommandLine> commandLines = ThreadLocal.withInitial(CommandLine::new);
 
-    public CommandBlocker(Plugin plugin, PermissionChecker permissionChecker) {
+    public CommandBlocker(Plugin plugin, Supplier<RuleSnapshot> rules, AuditLog auditLog, RateLimiter rateLimiter,
+                          ShadowEvaluator shadow) {
         this.plugin = plugin;
-        this.permissionChecker = permissionChecker;
+        this.rules = rules;
+        this.auditLog = auditLog;
+        this.rateLimiter = rateLimiter;
+        this.shadow = shadow;
         // Убираем блокировку всех команд по умолчанию
         // blockedCommands.add("*");
     }
@@ -29,70 +43,138 @@ public class CommandBlocker implements Listener {
     public void onPlayerCommand(PlayerCommandPreprocessEvent event) {
         Player player = event.getPlayer();
         String fullCommand = event.getMessage();
+        // Один снимок правил на всё событие, даже если параллельно идёт перезагрузка
+        RuleSnapshot snapshot = rules.get();
+
+        // Лимит проверяется до разбора: флуд отсекается без проверки прав и записи в журнал
+        if (snapshot.isRateLimitEnabled() && !acquireRateLimit(event, player, fullCommand, snapshot)) {
+            return;
+        }
+
+        CommandMetrics metrics = snapshot.getMetrics();
+        long started = metrics.isEnabled() ? System.nanoTime() : 0L;
         
-        CommandBlockerUltra.CommandInfo commandInfo = CommandBlockerUltra.parseCommand(fullCommand);
-        PermissionChecker.PermissionResult result = permissionChecker.checkPermission(player, commandInfo);
+        PermissionChecker.PermissionResult result = snapshot.getPermissionChecker().checkPermission(player, commandLines.get().parse(fullCommand));
         
+        if (metrics.isEnabled()) {
+            metrics.recordCommand(result, System.nanoTime() - started);
+        }
+
+        // Только запись в кольцо журнала, файл пишет фоновый поток
+        if (auditLog.isEnabled()) {
+            auditLog.record(player, fullCommand, result);
+        }
+
+        // Кандидат проверяется в фоне, на решение он не влияет
+        if (shadow.isActive()) {
+            shadow.submit(player, fullCommand, result);
+        }
+
         if (!result.allowed) {
-            blockCommand(event, player);
+            blockCommand(event, player, snapshot);
         }
     }
 
-    private void blockCommand(PlayerCommandPreprocessEvent event, Player player) {
+    private boolean acquireRateLimit(PlayerCommandPreprocessEvent event, Player player, String fullCommand,
+                                     RuleSnapshot snapshot) {
+        RateLimiter.Limit limit = snapshot.getCommandRateLimit();
+        RateLimiter.Limit commandLimit = null;
+        if (!snapshot.getPerCommandRateLimits().isEmpty()) {
+            // Метка команды - от '/' до первого пробела, ищется по участку строки без подстроки
+            int start = fullCommand.startsWith("/") ? 1 : 0;
+            int end = start;
+            while (end < fullCommand.length() && !Character.isWhitespace(fullCommand.charAt(end))) end++;
+            commandLimit = snapshot.findCommandRateLimit(fullCommand, start, end);
+        }
+        if (limit == null) {
+            limit = commandLimit;
+            commandLimit = null;
+        }
+        if (limit == null) return true;
+
+        // Общий токен не тратится, если команду отклоняет её собственный лимит
+        int violations = rateLimiter.acquire(player.getUniqueId(), limit, commandLimit, System.nanoTime());
+        if (violations == 0) return true;
+
         event.setCancelled(true);
-        String errorMessage = plugin.getConfig().getString("error-message", "&cКоманды отключены на этом сервере!");
-        player.sendMessage(org.bukkit.ChatColor.translateAlternateColorCodes('&', errorMessage));
+        snapshot.getMetrics().recordRateLimited();
+
+        int kickAfter = snapshot.getRateLimitKickAfter();
+        if (kickAfter > 0 && violations >= kickAfter) {
+            player.kickPlayer(snapshot.getRateLimitKickMessage());
+        } else if (violations == 1) {
+            // Сообщение только на первый отказ подряд, чтобы не отвечать флудом на флуд
+            player.sendMessage(snapshot.getRateLimitMessage());
+        }
+        return false;
     }
 
-    // Блокировка команд из консоли (теперь не блокируем)
-    @EventHandler
-    public void onServerCommand(ServerCommandEvent event) {
-        // Не блокируем команды из консоли
+    private void blockCommand(PlayerCommandPreprocessEvent event, Player player, RuleSnapshot snapshot) {
+        event.setCancelled(true);
+        player.sendMessage(snapshot.getErrorMessage());
     }
 
-    // Скрываем все команды, показываем только разрешенные
+    // Командные блоки, вагонетки с командным блоком и консоль - по политикам из конфига.
+    // Повторяющийся блок срабатывает каждый тик, поэтому решение для блока и вагонетки кэшируется
+    // по позиции (id сущности) вместе с текстом команды: повторная проверка - один поиск без разбора
     @EventHandler
-    public void onCommandSend(PlayerCommandSendEvent event) {
-        // Очищаем все команды
-        event.getCommands().clear();
-        
-        Player player = event.getPlayer();
-        
-        addRegularCommands(event, player);
-        addSuperCommands(event, player);
-    }
+    public void onServerCommand(ServerCommandEvent event) {
+        CommandSender sender = event.getSender();
+        RuleSnapshot snapshot = rules.get();
 
-    private void addRegularCommands(PlayerCommandSendEvent event, Player player) {
-        for (PermissionChecker.CommandConfig config : permissionChecker.getCommandConfigs().values()) {
-            if (hasPermission(player, config.getPermission())) {
-                event.getCommands().add(config.getMainCommand());
-                addAliases(event, player, config);
+        if (sender instanceof BlockCommandSender) {
+            Block block = ((BlockCommandSender) sender).getBlock();
+            long key = SenderDecisionCache.blockKey(block.getX(), block.getY(), block.getZ());
+            checkCachedSender(event, snapshot.getCommandBlockPolicy(), snapshot.getCommandBlockDecisions(), key, block.getWorld(), snapshot);
+        } else if (sender instanceof CommandMinecart) {
+            long key = ((CommandMinecart) sender).getEntityId();
+            checkCachedSender(event, snapshot.getMinecartPolicy(), snapshot.getMinecartDecisions(), key, null, snapshot);
+        } else if (snapshot.getConsolePolicy() != RuleSnapshot.SenderPolicy.ALLOW) {
+            // Консоль и RCON: команды редкие, кэш не нужен
+            PermissionChecker.PermissionResult result =
+                    snapshot.getPermissionChecker().checkNonPlayerPermission(sender, commandLines.get().parse(event.getCommand()));
+            if (!result.allowed) {
+                event.setCancelled(true);
+                sender.sendMessage(snapshot.getErrorMessage());
             }
         }
     }
 
-    private void addSuperCommands(PlayerCommandSendEvent event, Player player) {
-        for (PermissionChecker.SuperCommandConfig superConfig : permissionChecker.getSuperCommandConfigs().values()) {
-            for (PermissionChecker.SubCommandConfig subConfig : superConfig.getSubCommands().values()) {
-                if (hasPermission(player, subConfig.getPermission())) {
-                    event.getCommands().add(subConfig.getSubCommandName());
-                }
-            }
+    private void checkCachedSender(ServerCommandEvent event, RuleSnapshot.SenderPolicy policy, SenderDecisionCache decisions,
+                                   long key, Object world, RuleSnapshot snapshot) {
+        if (policy == RuleSnapshot.SenderPolicy.ALLOW) return;
+        if (policy == RuleSnapshot.SenderPolicy.DENY) {
+            event.setCancelled(true);
+            return;
         }
-    }
 
-    private void addAliases(PlayerCommandSendEvent event, Player player, PermissionChecker.CommandConfig config) {
-        if (config.getAliases() == null) return;
-        
-        for (String alias : config.getAliases()) {
-            if (alias != null && hasPermission(player, config.getPermission())) {
-                event.getCommands().add(alias);
-            }
+        String command = event.getCommand();
+        PermissionChecker.PermissionResult result = decisions.get(key, world, command);
+        if (result == null) {
+            result = snapshot.getPermissionChecker().checkNonPlayerPermission(event.getSender(), commandLines.get().parse(command));
+            decisions.put(key, world, command, result);
+        }
+        if (!result.allowed) {
+            // Сообщение некому показывать, блок просто не выполняет команду
+            event.setCancelled(true);
         }
     }
 
-    private boolean hasPermission(Player player, String permission) {
-        return permission == null || permission.equalsIgnoreCase("none") || player.hasPermission(permission);
+    // Скрываем все команды, показываем только разрешенные
+    @EventHandler
+    public void onCommandSend(PlayerCommandSendEvent event) {
+        // Набор уже посчитан для профиля прав игрока - просто подменяем список
+        RuleSnapshot snapshot = rules.get();
+        CommandMetrics metrics = snapshot.getMetrics();
+        long started = metrics.isEnabled() ? System.nanoTime() : 0L;
+
+        Collection<String> commands = event.getCommands();
+        commands.clear();
+        commands.addAll(snapshot.getPermissionChecker().getVisibleCommands(event.getPlayer()));
+
+        if (metrics.isEnabled()) {
+            metrics.recordCommandSend(System.nanoTime() - started);
+        }
     }
 
     private boolean isBlocked(String cmd) {
@@ -3,25 +3,72 @@ package com.mishkaworld.cbu;
 import org.bukkit.Bukkit;
 import org.bukkit.command.Command;
 import org.bukkit.command.CommandSender;
+import org.bukkit.entity.Entity;
 import org.bukkit.entity.Player;
 import org.bukkit.event.EventHandler;
 import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerChangedWorldEvent;
 import org.bukkit.event.player.PlayerCommandPreprocessEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
 import org.bukkit.plugin.java.JavaPlugin;
+import org.bukkit.event.server.PluginDisableEvent;
+import org.bukkit.event.server.PluginEnableEvent;
 import org.bukkit.event.server.ServerCommandEvent;
-import org.bukkit.event.HandlerList;
+import org.bukkit.event.server.ServerLoadEvent;
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.configuration.InvalidConfigurationException;
+import org.bukkit.configuration.file.FileConfiguration;
+import org.bukkit.configuration.file.YamlConfiguration;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 
 public class CommandBlockerUltra extends JavaPlugin implements Listener {
 
     private Logger logger;
     private CommandBlocker commandBlocker;
-    private PermissionChecker permissionChecker;
     private TabCompleteManager tabCompleteManager;
+    // Текущий набор правил; перезагрузка подменяет его целиком, обработчики не перерегистрируются
+    private final AtomicReference<RuleSnapshot> rules = new AtomicReference<>();
+    private PlayerNameIndex playerNameIndex;
+    // Статистика для /cbu stats; общая для всех снимков, чтобы не обнуляться при перезагрузке
+    private final CommandMetrics metrics = new CommandMetrics(true);
+    private AuditLog auditLog;
+    // Ведёрки токенов переживают перезагрузку, из конфига берутся только лимиты
+    private final RateLimiter rateLimiter = new RateLimiter();
+    // Метки команд из CommandMap; снимаются только в глобальном потоке (основном вне Folia)
+    private volatile ServerCommandAliases serverAliases = ServerCommandAliases.empty();
+    private final AtomicBoolean aliasRefreshScheduled = new AtomicBoolean();
+    private RuleLoader ruleLoader;
+    // Свой загрузчик у теневого кандидата: таблица файлов и счётчики живого загрузчика не трогаются
+    private RuleLoader shadowRuleLoader;
+    private RuleCache ruleCache;
+    // Ручная и автоматическая перезагрузки не должны сравнивать и публиковать снимки одновременно
+    private final Object reloadLock = new Object();
+    private RuleWatcher ruleWatcher;
+    // Общий файл правил для нескольких серверов; режим меняется только перезапуском
+    private SharedRuleFile.Mode sharedMode = SharedRuleFile.Mode.OFF;
+    private SharedRuleFile sharedRules;
+    // Разобранные lists-file, общие для всех снимков
+    private ValueListStore valueLists;
+    // Теневая проверка config.candidate.yml на живых командах
+    private ShadowEvaluator shadow;
 
     @Override
     public void onEnable() {
@@ -33,8 +80,8 @@ public class CommandBlockerUltra extends JavaPlugin implements Listener {
         logger.info("Command Blocker Ultra v1.12 загружается...");
         
         setupDataFolder();
-        setupConfiguration();
-        initializeComponents();
+        FileConfiguration config = setupConfiguration();
+        initializeComponents(config);
         registerEventListeners();
         
         logger.info("Command Blocker Ultra v1.12 успешно загружен!");
@@ -44,32 +91,141 @@ public class CommandBlockerUltra extends JavaPlugin implements Listener {
         if (!getDataFolder().exists()) {
             getDataFolder().mkdirs();
         }
+
+        // Дополнительные файлы правил: commands/*.yml, по файлу на плагин или команду
+        File commandsFolder = new File(getDataFolder(), "commands");
+        if (!commandsFolder.exists()) {
+            commandsFolder.mkdirs();
+        }
     }
 
-    private void setupConfiguration() {
+    private FileConfiguration setupConfiguration() {
         File configFile = new File(getDataFolder(), "config.yml");
         if (!configFile.exists()) {
             saveDefaultConfig();
         }
-        reloadConfig();
-        logger.info("Конфиг загружен из: " + configFile.getAbsolutePath());
+        try {
+            FileConfiguration config = loadPluginConfig();
+            logger.info("Конфиг загружен из: " + configFile.getAbsolutePath());
+            return config;
+        } catch (Exception e) {
+            // Как reloadConfig(): сервер запускается с настройками по умолчанию из jar
+            logger.log(Level.SEVERE, "Не удалось загрузить " + configFile.getAbsolutePath() + ", используются значения по умолчанию", e);
+            YamlConfiguration config = new YamlConfiguration();
+            config.setDefaults(loadDefaultConfig());
+            return config;
+        }
+    }
+
+    // Один источник настроек для запуска и перезагрузки: config.yml поверх значений по умолчанию
+    // из jar, как у getConfig(), но новым экземпляром - перезагрузка идёт вне основного потока
+    private YamlConfiguration loadPluginConfig() throws IOException, InvalidConfigurationException {
+        YamlConfiguration config = new YamlConfiguration();
+        config.load(new File(getDataFolder(), "config.yml"));
+        config.setDefaults(loadDefaultConfig());
+        return config;
     }
 
-    private void initializeComponents() {
-        permissionChecker = new PermissionChecker(getConfig());
-        commandBlocker = new CommandBlocker(this, permissionChecker);
-        tabCompleteManager = new TabCompleteManager(permissionChecker, getConfig(), this);
+    private YamlConfiguration loadDefaultConfig() {
+        InputStream defaults = getResource("config.yml");
+        if (defaults == null) return new YamlConfiguration();
+        return YamlConfiguration.loadConfiguration(new InputStreamReader(defaults, StandardCharsets.UTF_8));
+    }
+
+    private void initializeComponents(FileConfiguration config) {
+        ruleLoader = new RuleLoader(new File(getDataFolder(), "commands"));
+        shadowRuleLoader = new RuleLoader(new File(getDataFolder(), "commands"));
+        ruleCache = new RuleCache(new File(getDataFolder(), "rules.cache"));
+        valueLists = new ValueListStore(getDataFolder());
+        sharedMode = SharedRuleFile.Mode.fromConfig(config);
+        if (sharedMode != SharedRuleFile.Mode.OFF) {
+            sharedRules = SharedRuleFile.fromConfig(config, getDataFolder());
+        }
+        rules.set(compileStartupRules(config));
+        scheduleSharedRulesPolling();
+        refreshServerAliases();
+        playerNameIndex = new PlayerNameIndex();
+        playerNameIndex.addAll(getServer().getOnlinePlayers());
+        auditLog = new AuditLog(new File(getDataFolder(), "logs"), logger, config);
+        shadow = new ShadowEvaluator(config.getInt("shadow.queue-size", 8192), config.getInt("shadow.samples", 10));
+        commandBlocker = new CommandBlocker(this, rules::get, auditLog, rateLimiter, shadow);
+        tabCompleteManager = new TabCompleteManager(rules::get, playerNameIndex, rateLimiter);
+        configureRuleWatcher(config);
+        if (config.getBoolean("shadow.enabled", false)) {
+            loadShadowCandidate(null);
+        }
+    }
+
+    // Ошибка в commands/*.yml при запуске не должна оставить сервер без правил из config.yml
+    private RuleSnapshot compileStartupRules(FileConfiguration config) {
+        if (sharedMode == SharedRuleFile.Mode.READER) {
+            SharedRuleFile.Rules shared = sharedRules.load();
+            if (shared != null) {
+                logger.info("Правила загружены из общего файла " + sharedRules.getFile() + ", версия " + shared.getVersion());
+                return RuleSnapshot.compile(config, shared.getFragments(), metrics, valueLists);
+            }
+            logger.warning("Общий файл правил " + sharedRules.getFile() + " не найден, используются свои правила");
+        }
+
+        try {
+            File configFile = new File(getDataFolder(), "config.yml");
+            List<RuleFragment> fragments = ruleLoader.load(configFile, config, ruleCache);
+            RuleSnapshot snapshot = RuleSnapshot.compile(config, fragments, metrics, valueLists);
+            publishSharedRules(fragments);
+            if (ruleLoader.isLoadedFromCache()) {
+                logger.info("Правила загружены из rules.cache, файлов в commands/: " + ruleLoader.getLastReused());
+            } else {
+                logger.info("Файлов правил из commands/ загружено: " + ruleLoader.getLastParsed());
+            }
+            return snapshot;
+        } catch (Exception e) {
+            logger.log(Level.SEVERE, "Не удалось загрузить правила из commands/, используются только правила config.yml", e);
+            return RuleSnapshot.compile(config, metrics);
+        }
     }
 
     private void registerEventListeners() {
         getServer().getPluginManager().registerEvents(this, this);
+        getServer().getPluginManager().registerEvents(playerNameIndex, this);
         getServer().getPluginManager().registerEvents(commandBlocker, this);
         getServer().getPluginManager().registerEvents(tabCompleteManager, this);
+        registerAsyncTabComplete();
+    }
+
+    // Асинхронное автодополнение доступно только на Paper, иначе остаётся синхронный TabCompleteManager.
+    // Слушатель регистрируется всегда, флаг async-tab-complete проверяется по текущему снимку правил
+    private void registerAsyncTabComplete() {
+        try {
+            Class.forName("com.destroystokyo.paper.event.server.AsyncTabCompleteEvent");
+        } catch (ClassNotFoundException e) {
+            logger.warning("AsyncTabCompleteEvent недоступен, используется синхронное автодополнение");
+            return;
+        }
+
+        getServer().getPluginManager().registerEvents(new AsyncTabCompleteListener(rules::get, tabCompleteManager), this);
     }
 
     @Override
     public void onDisable() {
         logger.info("Command Blocker Ultra v1.12 выгружается...");
+        if (auditLog != null) {
+            auditLog.close();
+        }
+        if (shadow != null) {
+            shadow.close();
+        }
+        if (ruleWatcher != null) {
+            ruleWatcher.close();
+            ruleWatcher = null;
+        }
+        if (ruleLoader != null) {
+            ruleLoader.close();
+        }
+        if (shadowRuleLoader != null) {
+            shadowRuleLoader.close();
+        }
+        getServer().getAsyncScheduler().cancelTasks(this);
+        getServer().getGlobalRegionScheduler().cancelTasks(this);
         logger.info("Command Blocker Ultra v1.12 успешно выгружен!");
     }
 
@@ -83,17 +239,75 @@ public class CommandBlockerUltra extends JavaPlugin implements Listener {
         // Пустой обработчик
     }
 
+    @EventHandler
+    public void onPlayerQuit(PlayerQuitEvent event) {
+        getPermissionCache().invalidate(event.getPlayer().getUniqueId());
+        rateLimiter.remove(event.getPlayer().getUniqueId());
+    }
+
+    // Набор команд сервера меняется при загрузке и включении/выключении плагинов
+    @EventHandler
+    public void onServerLoad(ServerLoadEvent event) {
+        scheduleServerAliasRefresh();
+    }
+
+    @EventHandler
+    public void onPluginEnable(PluginEnableEvent event) {
+        scheduleServerAliasRefresh();
+    }
+
+    @EventHandler
+    public void onPluginDisable(PluginDisableEvent event) {
+        scheduleServerAliasRefresh();
+    }
+
+    // При запуске плагины включаются пачкой - обходим CommandMap один раз на следующем тике
+    private void scheduleServerAliasRefresh() {
+        if (!isEnabled() || !aliasRefreshScheduled.compareAndSet(false, true)) return;
+
+        getServer().getGlobalRegionScheduler().run(this, task -> {
+            aliasRefreshScheduled.set(false);
+            refreshServerAliases();
+        });
+    }
+
+    // Метки сервера применяются к снимку до публикации. refreshServerAliases, сработавший между
+    // этим и rules.set, обновил ещё прежний снимок - тогда применяем новые метки повторно.
+    // serverAliases и rules видны всем потокам сразу: новые метки либо видны здесь, либо их обновление видит новый снимок
+    private void publishSnapshot(RuleSnapshot snapshot) {
+        ServerCommandAliases aliases = serverAliases;
+        snapshot.applyServerAliases(aliases);
+        rules.set(snapshot);
+        if (serverAliases != aliases) {
+            snapshot.applyServerAliases(serverAliases);
+        }
+    }
+
+    private void refreshServerAliases() {
+        serverAliases = ServerCommandAliases.capture(getServer().getCommandMap());
+        rules.get().applyServerAliases(serverAliases);
+        RuleSnapshot candidate = shadow != null ? shadow.getCandidate() : null;
+        if (candidate != null) {
+            candidate.applyServerAliases(serverAliases);
+        }
+    }
+
+    // Контексты прав (например, мир в LuckPerms) могли измениться
+    @EventHandler
+    public void onPlayerChangedWorld(PlayerChangedWorldEvent event) {
+        getPermissionCache().invalidate(event.getPlayer().getUniqueId());
+    }
+
+    // Горячий путь использует CommandLine напрямую, здесь - разбор без регулярных выражений для внешних вызовов
     public static CommandInfo parseCommand(String fullCommand) {
-        String command = fullCommand.startsWith("/") ? fullCommand.substring(1) : fullCommand;
-        String[] parts = command.split("\\s+");
-        
-        if (parts.length == 0) {
-            return new CommandInfo("", new String[0], fullCommand);
+        CommandLine line = new CommandLine().parse(fullCommand);
+
+        String mainCommand = line.token(0).toLowerCase();
+        String[] arguments = new String[line.getArgumentCount()];
+        for (int i = 0; i < arguments.length; i++) {
+            arguments[i] = line.token(i + 1);
         }
-        
-        String mainCommand = parts[0].toLowerCase();
-        String[] arguments = parts.length > 1 ? Arrays.copyOfRange(parts, 1, parts.length) : new String[0];
-        
+
         return new CommandInfo(mainCommand, arguments, fullCommand);
     }
 
@@ -164,8 +378,31 @@ public class CommandBlockerUltra extends JavaPlugin implements Listener {
         if (label.equalsIgnoreCase("cbu")) {
             if (args.length > 0 && args[0].equalsIgnoreCase("reload")) {
                 if (sender.hasPermission("cbu.reload")) {
-                    reloadPluginConfig();
-                    sender.sendMessage("§aКонфигурация перезагружена!");
+                    reloadPluginConfig(sender);
+                } else {
+                    sender.sendMessage("§cУ вас нет прав для выполнения этой команды!");
+                }
+                return true;
+            }
+            if (args.length > 0 && args[0].equalsIgnoreCase("stats")) {
+                if (sender.hasPermission("cbu.stats")) {
+                    showStats(sender, args.length > 1 && args[1].equalsIgnoreCase("reset"));
+                } else {
+                    sender.sendMessage("§cУ вас нет прав для выполнения этой команды!");
+                }
+                return true;
+            }
+            if (args.length > 0 && args[0].equalsIgnoreCase("shadow")) {
+                if (sender.hasPermission("cbu.shadow")) {
+                    handleShadowCommand(sender, args.length > 1 ? args[1].toLowerCase() : "");
+                } else {
+                    sender.sendMessage("§cУ вас нет прав для выполнения этой команды!");
+                }
+                return true;
+            }
+            if (args.length > 0 && args[0].equalsIgnoreCase("memory")) {
+                if (sender.hasPermission("cbu.memory")) {
+                    showMemory(sender);
                 } else {
                     sender.sendMessage("§cУ вас нет прав для выполнения этой команды!");
                 }
@@ -175,20 +412,321 @@ public class CommandBlockerUltra extends JavaPlugin implements Listener {
         return false;
     }
 
+    private void handleShadowCommand(CommandSender sender, String action) {
+        switch (action) {
+            case "start":
+                loadShadowCandidate(sender);
+                return;
+            case "stop":
+                shadow.stop();
+                sender.sendMessage("§aТеневая проверка остановлена.");
+                return;
+            case "reset":
+                shadow.reset();
+                sender.sendMessage("§aСчётчики теневой проверки сброшены.");
+                return;
+            case "promote":
+                promoteShadowCandidate(sender);
+                return;
+            default:
+                if (!shadow.isActive()) {
+                    sender.sendMessage("§eТеневая проверка не запущена: /cbu shadow start");
+                    return;
+                }
+                for (String line : shadow.report(10)) {
+                    sender.sendMessage(line);
+                }
+        }
+    }
+
+    private void loadShadowCandidate(CommandSender sender) {
+        File candidateFile = new File(getDataFolder(), "config.candidate.yml");
+
+        getServer().getAsyncScheduler().runNow(this, task -> {
+            try {
+                synchronized (reloadLock) {
+                    compileShadowCandidate(candidateFile);
+                    valueLists.retain(activeListFiles());
+                }
+                logger.info("Теневая проверка запущена: " + candidateFile.getName());
+                notifyReload(sender, "§aТеневая проверка запущена: " + candidateFile.getName());
+            } catch (Exception e) {
+                logger.log(Level.WARNING, "Не удалось загрузить " + candidateFile.getName(), e);
+                notifyReload(sender, "§cНе удалось загрузить " + candidateFile.getName() + ": " + e.getMessage());
+            }
+        });
+    }
+
+    // Кандидат - config.candidate.yml вместо config.yml плюс те же commands/*.yml, что у живых правил.
+    // Вызывается под reloadLock; новый кандидат начинает счётчики заново
+    private void compileShadowCandidate(File candidateFile) throws Exception {
+        // Те же значения по умолчанию из jar, что у живых правил
+        YamlConfiguration config = new YamlConfiguration();
+        config.load(candidateFile);
+        config.setDefaults(loadDefaultConfig());
+
+        RuleSnapshot candidate = RuleSnapshot.compile(config, shadowRuleLoader.load(config), CommandMetrics.DISABLED, valueLists,
+                PermissionCache.disabled());
+        ServerCommandAliases aliases = serverAliases;
+        candidate.applyServerAliases(aliases);
+        shadow.start(candidate, candidateFile.getName());
+        // См. publishSnapshot: метки могли обновиться до публикации кандидата
+        if (serverAliases != aliases) {
+            candidate.applyServerAliases(serverAliases);
+        }
+    }
+
+    // commands/ у кандидата общие с живыми правилами - после их перезагрузки он собирается заново,
+    // иначе расхождения считались бы против прежних файлов
+    private void refreshShadowCandidate() {
+        if (!shadow.isActive()) return;
+
+        File candidateFile = new File(getDataFolder(), shadow.getSource());
+        try {
+            compileShadowCandidate(candidateFile);
+        } catch (Exception e) {
+            shadow.stop();
+            logger.log(Level.WARNING, "Теневая проверка остановлена: не удалось пересобрать " + candidateFile.getName(), e);
+        }
+    }
+
+    // Списки lists-file, на которые ссылаются живые правила и теневой кандидат
+    private Set<String> activeListFiles() {
+        Set<String> files = new HashSet<>(rules.get().getPermissionChecker().getListFiles());
+        RuleSnapshot candidate = shadow.getCandidate();
+        if (candidate != null) {
+            files.addAll(candidate.getPermissionChecker().getListFiles());
+        }
+        return files;
+    }
+
+    // Кандидат становится config.yml (прежний сохраняется в config.yml.bak) и применяется обычной перезагрузкой
+    private void promoteShadowCandidate(CommandSender sender) {
+        if (!shadow.isActive()) {
+            sender.sendMessage("§eНет запущенного кандидата: /cbu shadow start");
+            return;
+        }
+
+        File configFile = new File(getDataFolder(), "config.yml");
+        File candidateFile = new File(getDataFolder(), "config.candidate.yml");
+        try {
+            synchronized (reloadLock) {
+                Files.copy(configFile.toPath(), new File(getDataFolder(), "config.yml.bak").toPath(),
+                        StandardCopyOption.REPLACE_EXISTING);
+                Files.copy(candidateFile.toPath(), configFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Не удалось применить " + candidateFile.getName(), e);
+            sender.sendMessage("§cНе удалось применить кандидата: " + e.getMessage());
+            return;
+        }
+
+        shadow.stop();
+        sender.sendMessage("§aКандидат записан в config.yml, прежний конфиг - config.yml.bak. Перезагрузка...");
+        reloadPluginConfig(sender);
+    }
+
+    // Размер правил и списков значений; для lists-file - оценка по массивам упакованного списка
+    private void showMemory(CommandSender sender) {
+        PermissionChecker checker = rules.get().getPermissionChecker();
+        int subCommands = 0;
+        for (PermissionChecker.SuperCommandConfig config : checker.getSuperCommandConfigs().values()) {
+            subCommands += config.getSubCommands().size();
+        }
+        sender.sendMessage("§6Правила: §fкоманд " + checker.getCommandConfigs().size()
+                + ", супер-команд " + checker.getSuperCommandConfigs().size() + ", субкоманд " + subCommands);
+
+        for (Map.Entry<String, ValueListStore.LoadedList> entry : valueLists.entries()) {
+            CompactValueList values = entry.getValue().getValues();
+            sender.sendMessage("§6lists-file " + entry.getKey() + ": §f" + values.size() + " значений, "
+                    + values.getPermissionCount() + " разных прав, ~" + values.estimateBytes() / 1024 + " КБ в памяти (файл "
+                    + entry.getValue().getFileSize() / 1024 + " КБ)");
+        }
+
+        Runtime runtime = Runtime.getRuntime();
+        long usedMb = (runtime.totalMemory() - runtime.freeMemory()) / (1024 * 1024);
+        sender.sendMessage("§6Куча JVM: §f" + usedMb + " / " + runtime.maxMemory() / (1024 * 1024) + " МБ");
+    }
+
+    private void showStats(CommandSender sender, boolean reset) {
+        if (reset) {
+            metrics.reset();
+            sender.sendMessage("§aСтатистика сброшена.");
+            return;
+        }
+        if (!rules.get().getMetrics().isEnabled()) {
+            sender.sendMessage("§eСтатистика не собирается: включите metrics.enabled в config.yml.");
+            return;
+        }
+        for (String line : metrics.report(10)) {
+            sender.sendMessage(line);
+        }
+    }
+
+    // Для плагинов прав: getPermissionCache().invalidate(uuid) после изменения прав игрока
+    public PermissionCache getPermissionCache() {
+        return rules.get().getPermissionChecker().getPermissionCache();
+    }
+
+    // Для плагинов ваниша: playerNameIndex.setVisibilityPredicate(...)
+    public PlayerNameIndex getPlayerNameIndex() {
+        return playerNameIndex;
+    }
+
+    public RuleSnapshot getRules() {
+        return rules.get();
+    }
+
     public void reloadPluginConfig() {
-        reloadConfig();
-        permissionChecker = new PermissionChecker(getConfig());
+        reloadPluginConfig(null);
+    }
+
+    // Разбор YAML и компиляция правил идут в асинхронной задаче, основной поток ничего не ждёт.
+    // Новый снимок публикуется одной атомарной записью; при ошибке остаются старые правила
+    public void reloadPluginConfig(CommandSender sender) {
+        getServer().getAsyncScheduler().runNow(this, task -> {
+            try {
+                RuleDiff diff = reloadRules(true);
+                notifyReload(sender, "§aКонфигурация перезагружена! Файлов commands/ разобрано: "
+                        + ruleLoader.getLastParsed() + ", без изменений: " + ruleLoader.getLastReused()
+                        + " (" + diff.summary(5) + ")");
+            } catch (Exception e) {
+                logger.log(Level.WARNING, "Не удалось перезагрузить конфигурацию, оставлены прежние правила", e);
+                notifyReload(sender, "§cОшибка в конфигурации, оставлены прежние правила: " + e.getMessage());
+            }
+        });
+    }
+
+    // Собирает и проверяет новый набор правил вне основного потока; публикует его, только если
+    // компиляция прошла без ошибок. force = false - пропустить, если файлы правил не изменились
+    // (редактор сохранил тот же текст). Возвращает разницу с прежними правилами или null при пропуске
+    private RuleDiff reloadRules(boolean force) throws Exception {
+        File configFile = new File(getDataFolder(), "config.yml");
+
+        synchronized (reloadLock) {
+            YamlConfiguration config = loadPluginConfig();
+
+            // Reader берёт правила из общего файла, настройки - из своего config.yml
+            SharedRuleFile.Rules shared = sharedMode == SharedRuleFile.Mode.READER ? sharedRules.load() : null;
+            List<RuleFragment> fragments;
+            if (shared != null) {
+                fragments = shared.getFragments();
+            } else {
+                // Разбираются только изменившиеся файлы commands/*.yml
+                fragments = ruleLoader.load(configFile, config, ruleCache);
+                if (!force && !ruleLoader.isSourceChanged()) return null;
+            }
 
-        if (tabCompleteManager != null) {
-            HandlerList.unregisterAll(tabCompleteManager);
+            RuleSnapshot snapshot = RuleSnapshot.compile(config, fragments, metrics, valueLists);
+            publishSharedRules(fragments);
+            RuleDiff diff = RuleDiff.between(rules.get().getPermissionChecker(), snapshot.getPermissionChecker());
+            publishSnapshot(snapshot);
+            refreshShadowCandidate();
+            valueLists.retain(activeListFiles());
+            auditLog.configure(config);
+            getServer().getGlobalRegionScheduler().execute(this, () -> configureRuleWatcher(config));
+            return diff;
         }
-        tabCompleteManager = new TabCompleteManager(permissionChecker, getConfig(), this);
-        getServer().getPluginManager().registerEvents(tabCompleteManager, this);
+    }
 
-        if (commandBlocker != null) {
-            HandlerList.unregisterAll(commandBlocker);
+    // Writer публикует только проверенные компиляцией правила; ошибка записи не мешает своему серверу
+    private void publishSharedRules(List<RuleFragment> fragments) {
+        if (sharedMode != SharedRuleFile.Mode.WRITER) return;
+
+        try {
+            long version = sharedRules.publish(ruleLoader.getSourceHash(), fragments);
+            logger.info("Общий файл правил " + sharedRules.getFile() + ", версия " + version);
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Не удалось записать общий файл правил " + sharedRules.getFile(), e);
+        }
+    }
+
+    // Reader проверяет только заголовок файла; новая версия применяется с настройками текущего снимка
+    private void scheduleSharedRulesPolling() {
+        if (sharedMode != SharedRuleFile.Mode.READER) return;
+
+        long interval = Math.max(50, rules.get().getConfig().getLong("shared-rules.poll-interval-ms", 1000));
+        getServer().getAsyncScheduler().runAtFixedRate(this, task -> {
+            if (!sharedRules.isChanged()) return;
+
+            synchronized (reloadLock) {
+                SharedRuleFile.Rules shared = sharedRules.load();
+                if (shared == null) return;
+
+                try {
+                    RuleSnapshot snapshot = RuleSnapshot.compile(rules.get().getConfig(), shared.getFragments(), metrics, valueLists);
+                    RuleDiff diff = RuleDiff.between(rules.get().getPermissionChecker(), snapshot.getPermissionChecker());
+                    publishSnapshot(snapshot);
+                    valueLists.retain(activeListFiles());
+                    logger.info("Применена версия " + shared.getVersion() + " общего файла правил: " + diff.summary(10));
+                } catch (RuntimeException e) {
+                    logger.log(Level.WARNING, "Версия " + shared.getVersion() + " общего файла правил не применена", e);
+                }
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    // Вызывается потоком RuleWatcher, когда изменения файлов затихли
+    private void autoReload() {
+        try {
+            RuleDiff diff = reloadRules(false);
+            if (diff == null) return;
+
+            String message = "Правила перезагружены автоматически: " + diff.summary(10);
+            logger.info(message);
+            notifyAdmins("§a[CBU] " + message);
+        } catch (Exception e) {
+            logger.log(Level.WARNING, "Автоматическая перезагрузка не удалась, оставлены прежние правила", e);
+            notifyAdmins("§c[CBU] Ошибка в правилах, оставлены прежние: " + e.getMessage());
+        }
+    }
+
+    // Наблюдатель включается, выключается или пересоздаётся по настройкам auto-reload
+    private void configureRuleWatcher(ConfigurationSection config) {
+        if (!isEnabled()) return;
+
+        boolean enabled = config.getBoolean("auto-reload.enabled", false);
+        long debounce = config.getLong("auto-reload.debounce-ms", 500);
+        if (ruleWatcher != null && !(enabled && ruleWatcher.getDebounceMillis() == Math.max(50, debounce))) {
+            ruleWatcher.close();
+            ruleWatcher = null;
+        }
+        if (!enabled) return;
+
+        if (ruleWatcher == null) {
+            try {
+                ruleWatcher = new RuleWatcher(getDataFolder(), ruleLoader.getCommandsDirectory(), debounce, this::autoReload, logger);
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Не удалось включить автоматическую перезагрузку правил", e);
+                return;
+            }
+        }
+
+        // Набор lists-file мог измениться вместе с правилами
+        List<File> listFiles = new ArrayList<>();
+        for (String path : rules.get().getPermissionChecker().getListFiles()) {
+            listFiles.add(valueLists.resolve(path));
+        }
+        ruleWatcher.watchListFiles(listFiles);
+    }
+
+    // Игрок трогается только в потоке своего региона (на обычном Paper - в основном потоке)
+    private void notifyAdmins(String message) {
+        for (Player player : getServer().getOnlinePlayers()) {
+            player.getScheduler().run(this, task -> {
+                if (player.hasPermission("cbu.reload")) {
+                    player.sendMessage(message);
+                }
+            }, null);
+        }
+    }
+
+    private void notifyReload(CommandSender sender, String message) {
+        if (sender == null) return;
+        if (sender instanceof Entity) {
+            ((Entity) sender).getScheduler().run(this, task -> sender.sendMessage(message), null);
+        } else {
+            getServer().getGlobalRegionScheduler().execute(this, () -> sender.sendMessage(message));
         }
-        commandBlocker = new CommandBlocker(this, permissionChecker);
-        getServer().getPluginManager().registerEvents(commandBlocker, this);
     }
-} 
\ No newline at end of file
+}
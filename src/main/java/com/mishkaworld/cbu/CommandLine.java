@@ -0,0 +1,97 @@
+package com.mishkaworld.cbu;
+
+import java.util.Arrays;
+
+// Разбор команды без копирования: хранит только границы токенов в исходном сообщении.
+// Экземпляр переиспользуется между вызовами parse, поэтому проверка разрешённой
+// команды не создаёт ни подстрок, ни массивов.
+public final class CommandLine {
+    private String message = "";
+    private int[] starts = new int[8];
+    private int[] ends = new int[8];
+    private int count;
+
+    // Разбивает сообщение так же, как split("\\s+") после снятия '/':
+    // ведущий пробел даёт пустую команду, хвостовые пробелы отбрасываются
+    public CommandLine parse(String fullCommand) {
+        message = fullCommand;
+        count = 0;
+
+        int length = fullCommand.length();
+        int index = fullCommand.startsWith("/") ? 1 : 0;
+
+        int start = index;
+        while (index < length && !isWhitespace(fullCommand.charAt(index))) index++;
+        addToken(start, index);
+
+        while (true) {
+            while (index < length && isWhitespace(fullCommand.charAt(index))) index++;
+            if (index >= length) break;
+
+            start = index;
+            while (index < length && !isWhitespace(fullCommand.charAt(index))) index++;
+            addToken(start, index);
+        }
+        return this;
+    }
+
+    private void addToken(int start, int end) {
+        if (count == starts.length) {
+            starts = Arrays.copyOf(starts, count * 2);
+            ends = Arrays.copyOf(ends, count * 2);
+        }
+        starts[count] = start;
+        ends[count] = end;
+        count++;
+    }
+
+    // Тот же набор символов, что и \s в регулярных выражениях
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    // Количество токенов вместе с самой командой
+    public int size() {
+        return count;
+    }
+
+    public int getArgumentCount() {
+        return count - 1;
+    }
+
+    public int start(int index) {
+        return starts[index];
+    }
+
+    public int end(int index) {
+        return ends[index];
+    }
+
+    public int length(int index) {
+        return ends[index] - starts[index];
+    }
+
+    public boolean tokenEquals(int index, String value, boolean ignoreCase) {
+        int length = length(index);
+        return value.length() == length && message.regionMatches(ignoreCase, starts[index], value, 0, length);
+    }
+
+    // Создаёт строку токена - только для сообщений об ошибках и логов
+    public String token(int index) {
+        return (index >= 0 && index < count) ? message.substring(starts[index], ends[index]) : null;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("CommandLine{");
+        for (int i = 0; i < count; i++) {
+            if (i > 0) builder.append(", ");
+            builder.append('\'').append(message, starts[i], ends[i]).append('\'');
+        }
+        return builder.append('}').toString();
+    }
+}
@@ -0,0 +1,190 @@
+package com.mishkaworld.cbu;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// Счётчики решений и гистограммы задержек горячих путей для /cbu stats.
+// Включается через metrics.enabled; выключенный экземпляр - это DISABLED, и обработчики
+// проверяют только final-поле enabled, не вызывая System.nanoTime().
+public class CommandMetrics {
+    public static final CommandMetrics DISABLED = new CommandMetrics(false);
+
+    // Команды не из конфига считаются в одном счётчике, чтобы спам случайными командами не раздувал карту
+    private static final String UNKNOWN_RULE = "<не в конфиге>";
+
+    private final boolean enabled;
+    private final LatencyHistogram commandLatency = new LatencyHistogram();
+    private final LatencyHistogram commandSendLatency = new LatencyHistogram();
+    private final LatencyHistogram tabCompleteLatency = new LatencyHistogram();
+    private final Map<String, RuleCounters> rules = new ConcurrentHashMap<>();
+    private final LongAdder allowed = new LongAdder();
+    private final LongAdder blocked = new LongAdder();
+    private final LongAdder rateLimited = new LongAdder();
+    private volatile long startedAt = System.currentTimeMillis();
+
+    public CommandMetrics(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void recordCommand(PermissionChecker.PermissionResult result, long nanos) {
+        commandLatency.record(nanos);
+
+        String rule = result.rule != null ? result.rule : UNKNOWN_RULE;
+        RuleCounters counters = rules.get(rule);
+        if (counters == null) {
+            counters = rules.computeIfAbsent(rule, key -> new RuleCounters());
+        }
+
+        if (result.allowed) {
+            allowed.increment();
+            counters.allowed.increment();
+        } else {
+            blocked.increment();
+            counters.blocked.increment();
+        }
+    }
+
+    public void recordRateLimited() {
+        if (enabled) {
+            rateLimited.increment();
+        }
+    }
+
+    public void recordCommandSend(long nanos) {
+        commandSendLatency.record(nanos);
+    }
+
+    public void recordTabComplete(long nanos) {
+        tabCompleteLatency.record(nanos);
+    }
+
+    public void reset() {
+        commandLatency.reset();
+        commandSendLatency.reset();
+        tabCompleteLatency.reset();
+        rules.clear();
+        allowed.reset();
+        blocked.reset();
+        rateLimited.reset();
+        startedAt = System.currentTimeMillis();
+    }
+
+    public List<String> report(int topRules) {
+        List<String> lines = new ArrayList<>();
+        long seconds = Math.max(1, (System.currentTimeMillis() - startedAt) / 1000);
+
+        lines.add("§6Статистика CBU за " + seconds + " с:");
+        lines.add("§7Команды: §a" + allowed.sum() + " разрешено§7, §c" + blocked.sum() + " заблокировано§7, §e"
+                + rateLimited.sum() + " отклонено лимитом");
+        lines.add("§7Проверка команды: " + commandLatency.describe());
+        lines.add("§7Список команд: " + commandSendLatency.describe());
+        lines.add("§7Автодополнение: " + tabCompleteLatency.describe());
+
+        List<Map.Entry<String, RuleCounters>> entries = new ArrayList<>(rules.entrySet());
+        entries.sort(Comparator.comparingLong((Map.Entry<String, RuleCounters> entry) -> entry.getValue().total()).reversed());
+
+        lines.add("§7Топ правил:");
+        for (int i = 0; i < Math.min(topRules, entries.size()); i++) {
+            Map.Entry<String, RuleCounters> entry = entries.get(i);
+            lines.add("§7  " + entry.getKey() + ": §a" + entry.getValue().allowed.sum()
+                    + "§7 / §c" + entry.getValue().blocked.sum());
+        }
+        return lines;
+    }
+
+    private static final class RuleCounters {
+        private final LongAdder allowed = new LongAdder();
+        private final LongAdder blocked = new LongAdder();
+
+        private long total() {
+            return allowed.sum() + blocked.sum();
+        }
+    }
+
+    // Лог-линейная гистограмма в духе HdrHistogram: 8 подкорзин на каждую степень двойки
+    // (погрешность около 12%), запись - один атомарный инкремент без блокировок
+    static final class LatencyHistogram {
+        private static final int SUB_BUCKET_BITS = 3;
+        private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+        private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS + SUB_BUCKETS;
+
+        private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+        private final LongAdder total = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+
+        void record(long nanos) {
+            long value = Math.max(0, nanos);
+            counts.incrementAndGet(bucketOf(value));
+            total.increment();
+            sum.add(value);
+        }
+
+        static int bucketOf(long value) {
+            if (value < SUB_BUCKETS) {
+                return (int) value;
+            }
+            int exponent = 63 - Long.numberOfLeadingZeros(value);
+            int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+            return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+        }
+
+        // Верхняя граница значений корзины
+        static long upperBound(int bucket) {
+            if (bucket < SUB_BUCKETS) {
+                return bucket;
+            }
+            int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+            long subBucket = bucket % SUB_BUCKETS;
+            long lower = (1L << exponent) + (subBucket << (exponent - SUB_BUCKET_BITS));
+            return lower + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+        }
+
+        long percentile(double percentile) {
+            long count = total.sum();
+            if (count == 0) return 0;
+
+            long threshold = Math.max(1, (long) Math.ceil(count * percentile / 100.0));
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += counts.get(i);
+                if (seen >= threshold) {
+                    return upperBound(i);
+                }
+            }
+            return upperBound(BUCKETS - 1);
+        }
+
+        void reset() {
+            for (int i = 0; i < BUCKETS; i++) {
+                counts.set(i, 0);
+            }
+            total.reset();
+            sum.reset();
+        }
+
+        String describe() {
+            long count = total.sum();
+            if (count == 0) return "нет данных";
+
+            return count + " шт., среднее " + formatNanos(sum.sum() / count)
+                    + ", p50 " + formatNanos(percentile(50))
+                    + ", p99 " + formatNanos(percentile(99))
+                    + ", p99.9 " + formatNanos(percentile(99.9));
+        }
+
+        private static String formatNanos(long nanos) {
+            if (nanos < 10_000) return nanos + " нс";
+            if (nanos < 10_000_000) return (nanos / 1_000) + " мкс";
+            return (nanos / 1_000_000) + " мс";
+        }
+    }
+}
@@ -0,0 +1,396 @@
+package com.mishkaworld.cbu;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+// Скомпилированное дерево решений: команда → субкоманда → arg#N → значение из списка.
+// Строится один раз при загрузке конфига, алиасы добавлены как дополнительные рёбра,
+// поэтому любая команда разрешается одним проходом без перебора всех конфигов.
+public class CommandTrie {
+    private final Map<String, Node> rootIndex = new HashMap<>();
+    private final Map<String, Node> subCommandIndex = new HashMap<>();
+    private final TokenMap<Node> roots;
+    private final TokenMap<Node> subCommandRoots;
+    private final PrefixIndex rootCompletions;
+    private final ValueListStore valueLists;
+
+    public CommandTrie(Map<String, PermissionChecker.CommandConfig> commandConfigs,
+                       Map<String, PermissionChecker.SuperCommandConfig> superCommandConfigs) {
+        this(commandConfigs, superCommandConfigs, null);
+    }
+
+    public CommandTrie(Map<String, PermissionChecker.CommandConfig> commandConfigs,
+                       Map<String, PermissionChecker.SuperCommandConfig> superCommandConfigs,
+                       ValueListStore valueLists) {
+        this.valueLists = valueLists;
+        Map<String, Node> superNodes = new HashMap<>();
+        for (Map.Entry<String, PermissionChecker.SuperCommandConfig> entry : superCommandConfigs.entrySet()) {
+            superNodes.put(entry.getKey(), compileSuperCommand(entry.getKey(), entry.getValue()));
+        }
+        Map<String, Node> regularNodes = new HashMap<>();
+        for (Map.Entry<String, PermissionChecker.CommandConfig> entry : commandConfigs.entrySet()) {
+            regularNodes.put(entry.getKey(), compileRegularCommand(entry.getKey(), entry.getValue()));
+        }
+
+        // Порядок добавления повторяет прежний порядок проверки: обычные команды важнее
+        // супер-команд, прямое имя важнее алиаса
+        for (Map.Entry<String, Node> entry : superNodes.entrySet()) {
+            addAliases(superCommandConfigs.get(entry.getKey()).getAliases(), entry.getValue());
+        }
+        addNames(superNodes);
+        for (Map.Entry<String, Node> entry : regularNodes.entrySet()) {
+            addAliases(commandConfigs.get(entry.getKey()).getAliases(), entry.getValue());
+        }
+        addNames(regularNodes);
+
+        // Субкоманды доступны в автодополнении как самостоятельные команды
+        for (Node superNode : superNodes.values()) {
+            for (Map.Entry<String, Node> entry : superNode.getSubCommands().entrySet()) {
+                subCommandIndex.putIfAbsent(entry.getKey(), entry.getValue());
+            }
+        }
+
+        // Корень ищется без учёта регистра, как раньше после toLowerCase первого токена
+        this.roots = new TokenMap<>(rootIndex, true);
+        this.subCommandRoots = new TokenMap<>(subCommandIndex, false);
+        this.rootCompletions = buildRootCompletions(commandConfigs, superNodes);
+    }
+
+    // Первый уровень автодополнения: обычные команды с алиасами и субкоманды как самостоятельные команды
+    private static PrefixIndex buildRootCompletions(Map<String, PermissionChecker.CommandConfig> commandConfigs,
+                                                    Map<String, Node> superNodes) {
+        PrefixIndex.Builder builder = PrefixIndex.builder();
+        for (PermissionChecker.CommandConfig config : commandConfigs.values()) {
+            builder.add(config.getMainCommand(), config.getPermission());
+            if (config.getAliases() == null) continue;
+            for (String alias : config.getAliases()) {
+                builder.add(alias, config.getPermission());
+            }
+        }
+        for (Node superNode : superNodes.values()) {
+            for (Node subNode : superNode.getSubCommands().values()) {
+                builder.add(subNode.getName(), subNode.getPermission());
+            }
+        }
+        return builder.build();
+    }
+
+    private void addNames(Map<String, Node> nodes) {
+        for (Map.Entry<String, Node> entry : nodes.entrySet()) {
+            rootIndex.put(entry.getKey().toLowerCase(), entry.getValue());
+        }
+    }
+
+    private void addAliases(Iterable<String> aliases, Node node) {
+        if (aliases == null) return;
+
+        for (String alias : aliases) {
+            if (alias != null) {
+                rootIndex.put(alias.toLowerCase(), node);
+            }
+        }
+    }
+
+    private Node compileRegularCommand(String name, PermissionChecker.CommandConfig config) {
+        return new Node(name, name, NodeType.REGULAR, config.getPermission(),
+                compileArguments(config.getArguments()), Collections.emptyMap());
+    }
+
+    private Node compileSuperCommand(String name, PermissionChecker.SuperCommandConfig config) {
+        Map<String, Node> subCommands = new HashMap<>();
+        for (Map.Entry<String, PermissionChecker.SubCommandConfig> entry : config.getSubCommands().entrySet()) {
+            PermissionChecker.SubCommandConfig subConfig = entry.getValue();
+            subCommands.put(entry.getKey(), new Node(entry.getKey(), name + " " + entry.getKey(), NodeType.SUB, subConfig.getPermission(),
+                    compileArguments(subConfig.getArguments()), Collections.emptyMap()));
+        }
+        return new Node(name, name, NodeType.SUPER, config.getPermission(),
+                new Argument[0], Collections.unmodifiableMap(subCommands));
+    }
+
+    // arg#N раскладываем в массив по индексу N-1, чтобы не собирать ключ на каждый аргумент
+    private Argument[] compileArguments(Map<String, PermissionChecker.ArgumentConfig> arguments) {
+        int size = 0;
+        for (String argName : arguments.keySet()) {
+            size = Math.max(size, parseArgumentNumber(argName));
+        }
+
+        Argument[] compiled = new Argument[size];
+        for (Map.Entry<String, PermissionChecker.ArgumentConfig> entry : arguments.entrySet()) {
+            int number = parseArgumentNumber(entry.getKey());
+            if (number > 0) {
+                compiled[number - 1] = new Argument(entry.getValue(), loadValueList(entry.getValue()));
+            }
+        }
+        return compiled;
+    }
+
+    private CompactValueList loadValueList(PermissionChecker.ArgumentConfig config) {
+        String path = config.getListsFile();
+        if (path == null) return null;
+        if (valueLists == null) {
+            throw new IllegalArgumentException("lists-file недоступен без папки плагина: " + path);
+        }
+        return valueLists.get(path);
+    }
+
+    private static int parseArgumentNumber(String argName) {
+        if (argName == null || !argName.startsWith("arg#")) return 0;
+
+        try {
+            return Math.max(0, Integer.parseInt(argName.substring(4)));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    public Node getRoot(String command) {
+        return roots.get(command);
+    }
+
+    public Node getRoot(CommandLine line, int token) {
+        return roots.get(line, token);
+    }
+
+    public Node getRoot(String text, int start, int end) {
+        return roots.get(text, start, end);
+    }
+
+    public Node getSubCommandRoot(String subCommand) {
+        return subCommandRoots.get(subCommand);
+    }
+
+    public PrefixIndex getRootCompletions() {
+        return rootCompletions;
+    }
+
+    public enum NodeType {
+        REGULAR,
+        SUPER,
+        SUB
+    }
+
+    public static final class Node {
+        private final String name;
+        private final String path;
+        private final NodeType type;
+        private final String permission;
+        private final Argument[] arguments;
+        private final Map<String, Node> subCommands;
+        private final TokenMap<Node> subCommandIndex;
+        private final PrefixIndex subCommandCompletions;
+        private final PermissionChecker.PermissionResult allowedResult;
+
+        private Node(String name, String path, NodeType type, String permission,
+                     Argument[] arguments, Map<String, Node> subCommands) {
+            this.name = name;
+            this.path = path;
+            this.type = type;
+            this.permission = permission;
+            this.arguments = arguments;
+            this.subCommands = subCommands;
+            this.subCommandIndex = subCommands.isEmpty() ? TokenMap.empty() : new TokenMap<>(subCommands, false);
+
+            PrefixIndex.Builder completions = PrefixIndex.builder();
+            for (Node subNode : subCommands.values()) {
+                completions.add(subNode.getName(), subNode.getPermission());
+            }
+            this.subCommandCompletions = subCommands.isEmpty() ? PrefixIndex.empty() : completions.build();
+            // Общий результат для разрешённой команды - проверка не создаёт объектов
+            this.allowedResult = new PermissionChecker.PermissionResult(true, "Все права проверены успешно", path);
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        // Полный путь правила: "gamemode" или "cmi gm"
+        public String getPath() {
+            return path;
+        }
+
+        public PermissionChecker.PermissionResult getAllowedResult() {
+            return allowedResult;
+        }
+
+        public NodeType getType() {
+            return type;
+        }
+
+        public boolean isSuperCommand() {
+            return type == NodeType.SUPER;
+        }
+
+        public String getPermission() {
+            return permission;
+        }
+
+        public Node getSubCommand(String subCommand) {
+            return subCommandIndex.get(subCommand);
+        }
+
+        public Node getSubCommand(CommandLine line, int token) {
+            return subCommandIndex.get(line, token);
+        }
+
+        public Map<String, Node> getSubCommands() {
+            return subCommands;
+        }
+
+        public PrefixIndex getSubCommandCompletions() {
+            return subCommandCompletions;
+        }
+
+        // Аргумент по номеру arg#N (с единицы), null если не задан
+        public Argument getArgument(int number) {
+            return (number >= 1 && number <= arguments.length) ? arguments[number - 1] : null;
+        }
+
+        // Номер токена arg#1: после команды или после супер-команды и субкоманды
+        public int getFirstArgument() {
+            return type == NodeType.SUB ? 2 : 1;
+        }
+
+        // Ключ решения для кэша: только аргументы, которые проверяются правилом. Для значения со
+        // списком, шаблоном или типом важен сам токен, для аргумента только с правом - его наличие,
+        // а свободный текст (/msg ник <сообщение>) в ключ не попадает.
+        // decisionHash и decisionEquals считают ключ по месту, строка создаётся только при промахе кэша
+        public int decisionHash(CommandLine line) {
+            int hash = 0;
+            int first = getFirstArgument();
+            for (int n = 0; n < arguments.length && first + n < line.size(); n++) {
+                Argument argument = arguments[n];
+                if (argument == null) continue;
+
+                hash = 31 * hash + n + 1;
+                if (argument.inspectsValue()) {
+                    for (int j = line.start(first + n); j < line.end(first + n); j++) {
+                        hash = 31 * hash + line.getMessage().charAt(j);
+                    }
+                }
+            }
+            return hash;
+        }
+
+        public boolean decisionEquals(String key, CommandLine line) {
+            int position = 0;
+            int first = getFirstArgument();
+            for (int n = 0; n < arguments.length && first + n < line.size(); n++) {
+                Argument argument = arguments[n];
+                if (argument == null) continue;
+
+                if (position >= key.length() || key.charAt(position) != (char) (n + 1)) return false;
+                position++;
+                if (argument.inspectsValue()) {
+                    int length = line.length(first + n);
+                    if (position + length >= key.length()
+                            || !line.getMessage().regionMatches(line.start(first + n), key, position, length)
+                            || key.charAt(position + length) != '\u0000') {
+                        return false;
+                    }
+                    position += length + 1;
+                }
+            }
+            return position == key.length();
+        }
+
+        public String decisionKey(CommandLine line) {
+            StringBuilder builder = new StringBuilder();
+            int first = getFirstArgument();
+            for (int n = 0; n < arguments.length && first + n < line.size(); n++) {
+                Argument argument = arguments[n];
+                if (argument == null) continue;
+
+                builder.append((char) (n + 1));
+                if (argument.inspectsValue()) {
+                    builder.append(line.getMessage(), line.start(first + n), line.end(first + n)).append('\u0000');
+                }
+            }
+            return builder.toString();
+        }
+    }
+
+    public static final class Argument {
+        private final PermissionChecker.ArgumentConfig config;
+        private final TokenMap<String> values;
+        private final PrefixIndex valueCompletions;
+        private final ArgumentPatterns patterns;
+        private final ArgumentType type;
+        // Значения из lists-file; null, если файла нет
+        private final CompactValueList fileValues;
+
+        private Argument(PermissionChecker.ArgumentConfig config, CompactValueList fileValues) {
+            this.config = config;
+            this.fileValues = fileValues;
+            this.type = config.getType() != null ? ArgumentType.parse(config.getType()) : null;
+            this.values = config.getLists().isEmpty() ? TokenMap.empty() : new TokenMap<>(config.getLists(), false);
+            ArgumentPatterns compiled = ArgumentPatterns.compile(config.getPatterns());
+            this.patterns = compiled.isEmpty() ? null : compiled;
+
+            PrefixIndex.Builder completions = PrefixIndex.builder();
+            for (Map.Entry<String, String> entry : config.getLists().entrySet()) {
+                completions.add(entry.getKey(), entry.getValue());
+            }
+            this.valueCompletions = completions.build();
+        }
+
+        public PermissionChecker.ArgumentConfig getConfig() {
+            return config;
+        }
+
+        public String getPermission() {
+            return config.getPermission();
+        }
+
+        public boolean hasList() {
+            return !values.isEmpty() || fileValues != null;
+        }
+
+        public boolean hasPatterns() {
+            return patterns != null;
+        }
+
+        // Значение аргумента ограничено списком и/или шаблонами
+        public boolean hasValueRules() {
+            return hasList() || hasPatterns();
+        }
+
+        // Решение зависит от текста токена, а не только от его наличия
+        public boolean inspectsValue() {
+            return type != null || hasValueRules();
+        }
+
+        // null, если тип не задан
+        public ArgumentType getType() {
+            return type;
+        }
+
+        // null, если шаблонов нет
+        public ArgumentPatterns getPatterns() {
+            return patterns;
+        }
+
+        // Индекс значения из lists или -1, если значения нет в списке.
+        // Значения lists-file идут после ячеек lists: индекс values.capacity() + индекс в файле
+        public int indexOfValue(CommandLine line, int token) {
+            int index = values.indexOf(line, token);
+            if (index >= 0 || fileValues == null) return index;
+
+            int fileIndex = fileValues.indexOf(line, token);
+            return fileIndex >= 0 ? values.capacity() + fileIndex : -1;
+        }
+
+        public String getValuePermission(int index) {
+            return index < values.capacity() ? values.valueAt(index) : fileValues.getPermission(index - values.capacity());
+        }
+
+        // null, если lists-file не задан
+        public CompactValueList getFileValues() {
+            return fileValues;
+        }
+
+        public PrefixIndex getValueCompletions() {
+            return valueCompletions;
+        }
+    }
+}
@@ -0,0 +1,249 @@
+package com.mishkaworld.cbu;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Большой неизменяемый список значений аргумента (lists-file): тысячи предметов, десятки тысяч варпов.
+// Значения отсортированы без учёта регистра и хранятся с фронтальным кодированием в одном char[]:
+// в блоке из BLOCK значений первое записано целиком, остальные - длиной общего с предыдущим
+// префикса и остатком. Права интернированы: на значение приходится char-номер в таблице прав.
+// Поиск значения и диапазона префикса - бинарный поиск по первым значениям блоков и проход по одному блоку.
+public final class CompactValueList {
+    private static final int BLOCK = 16;
+
+    // Запись: [общий префикс][длина остатка][остаток...]
+    private final char[] data;
+    private final int[] blockOffsets;
+    private final char[] permissionIds;
+    // 0 - значение без права
+    private final String[] permissions;
+    private final int size;
+    private final int maxLength;
+    // Буфер для распаковки блока: автодополнение идёт и в потоках netty
+    private final ThreadLocal<char[]> scratch;
+
+    private CompactValueList(char[] data, int[] blockOffsets, char[] permissionIds, String[] permissions, int maxLength) {
+        this.data = data;
+        this.blockOffsets = blockOffsets;
+        this.permissionIds = permissionIds;
+        this.permissions = permissions;
+        this.size = permissionIds.length;
+        this.maxLength = maxLength;
+        this.scratch = ThreadLocal.withInitial(() -> new char[maxLength]);
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getPermissionCount() {
+        return permissions.length - 1;
+    }
+
+    public String getPermission(int index) {
+        return permissions[permissionIds[index]];
+    }
+
+    // Оценка занимаемой памяти: массивы и строки прав
+    public long estimateBytes() {
+        long bytes = 16L + data.length * 2L + blockOffsets.length * 4L + permissionIds.length * 2L + 64L;
+        for (String permission : permissions) {
+            if (permission != null) bytes += 40L + permission.length();
+        }
+        return bytes;
+    }
+
+    // Индекс значения, точно (с учётом регистра) совпадающего с участком text, или -1
+    public int indexOf(String text, int start, int end) {
+        if (end - start > maxLength) return -1;
+
+        char[] buffer = scratch.get();
+        int index = search(text, start, end, false, false);
+        int block = index / BLOCK;
+        if (block >= blockOffsets.length) return -1;
+
+        // Значения, равные без учёта регистра, стоят подряд - проверяем их точное совпадение
+        int offset = blockOffsets[block];
+        int length = 0;
+        for (int i = block * BLOCK; i < size; i++) {
+            if (i % BLOCK == 0) offset = blockOffsets[i / BLOCK];
+            int shared = data[offset];
+            int suffix = data[offset + 1];
+            System.arraycopy(data, offset + 2, buffer, shared, suffix);
+            length = shared + suffix;
+            offset += 2 + suffix;
+            if (i < index) continue;
+
+            int compare = compareIgnoreCase(buffer, length, text, start, end, false);
+            if (compare != 0) return -1;
+            if (equalsExact(buffer, length, text, start, end)) return i;
+        }
+        return -1;
+    }
+
+    public int indexOf(CommandLine line, int token) {
+        return indexOf(line.getMessage(), line.start(token), line.end(token));
+    }
+
+    // Первый индекс, значение которого начинается с prefix (или больше него); prefix - в нижнем регистре
+    public int from(String prefix) {
+        return search(prefix, 0, prefix.length(), true, false);
+    }
+
+    // Индекс сразу после последнего значения, начинающегося с prefix
+    public int to(String prefix) {
+        return search(prefix, 0, prefix.length(), true, true);
+    }
+
+    // Распаковывает значение: только для ответа автодополнения
+    public String getValue(int index) {
+        char[] buffer = scratch.get();
+        int block = index / BLOCK;
+        int offset = blockOffsets[block];
+        int length = 0;
+        for (int i = block * BLOCK; i <= index; i++) {
+            int shared = data[offset];
+            int suffix = data[offset + 1];
+            System.arraycopy(data, offset + 2, buffer, shared, suffix);
+            length = shared + suffix;
+            offset += 2 + suffix;
+        }
+        return new String(buffer, 0, length);
+    }
+
+    // Первый индекс, значение которого >= цели (upper: > цели); prefix - сравниваются только первые символы
+    private int search(String text, int start, int end, boolean prefix, boolean upper) {
+        // Первый блок, чьё первое значение уже не подходит под "меньше цели"
+        int low = 0;
+        int high = blockOffsets.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            int offset = blockOffsets[middle];
+            int compare = compareIgnoreCase(data, offset + 2, data[offset + 1], text, start, end, prefix);
+            if (compare < 0 || (upper && compare == 0)) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        if (low == 0) return 0;
+
+        // Ответ - среди значений предыдущего блока после первого или первое значение блока low
+        int block = low - 1;
+        char[] buffer = scratch.get();
+        int offset = blockOffsets[block];
+        int first = block * BLOCK;
+        int last = Math.min(size, first + BLOCK);
+        for (int i = first; i < last; i++) {
+            int shared = data[offset];
+            int suffix = data[offset + 1];
+            System.arraycopy(data, offset + 2, buffer, shared, suffix);
+            offset += 2 + suffix;
+            if (i == first) continue;
+
+            int compare = compareIgnoreCase(buffer, shared + suffix, text, start, end, prefix);
+            if (compare > 0 || (!upper && compare == 0)) return i;
+        }
+        return last;
+    }
+
+    private static int compareIgnoreCase(char[] value, int length, String text, int start, int end, boolean prefix) {
+        return compareIgnoreCase(value, 0, length, text, start, end, prefix);
+    }
+
+    private static int compareIgnoreCase(char[] value, int from, int length, String text, int start, int end, boolean prefix) {
+        int targetLength = end - start;
+        int common = Math.min(length, targetLength);
+        for (int i = 0; i < common; i++) {
+            int difference = Character.toLowerCase(value[from + i]) - Character.toLowerCase(text.charAt(start + i));
+            if (difference != 0) return difference;
+        }
+        if (prefix && length >= targetLength) return 0;
+        return length - targetLength;
+    }
+
+    private static boolean equalsExact(char[] value, int length, String text, int start, int end) {
+        if (length != end - start) return false;
+        for (int i = 0; i < length; i++) {
+            if (value[i] != text.charAt(start + i)) return false;
+        }
+        return true;
+    }
+
+    private static int compareValues(String left, String right) {
+        int common = Math.min(left.length(), right.length());
+        for (int i = 0; i < common; i++) {
+            int difference = Character.toLowerCase(left.charAt(i)) - Character.toLowerCase(right.charAt(i));
+            if (difference != 0) return difference;
+        }
+        if (left.length() != right.length()) return left.length() - right.length();
+        return left.compareTo(right);
+    }
+
+    public static final class Builder {
+        private final Map<String, String> entries = new HashMap<>();
+
+        // Повтор значения - последнее право побеждает, как у ключей в lists
+        public Builder add(String value, String permission) {
+            if (value == null || value.isEmpty()) return this;
+            if (value.length() > Character.MAX_VALUE) {
+                throw new IllegalArgumentException("Слишком длинное значение списка: " + value.substring(0, 32) + "...");
+            }
+            entries.put(value, permission);
+            return this;
+        }
+
+        public CompactValueList build() {
+            List<String> values = new ArrayList<>(entries.keySet());
+            values.sort(CompactValueList::compareValues);
+
+            Map<String, Integer> permissionIndex = new HashMap<>();
+            List<String> permissions = new ArrayList<>();
+            permissions.add(null);
+
+            StringBuilder data = new StringBuilder();
+            int[] blockOffsets = new int[(values.size() + BLOCK - 1) / BLOCK];
+            char[] permissionIds = new char[values.size()];
+            int maxLength = 0;
+            String previous = "";
+
+            for (int i = 0; i < values.size(); i++) {
+                String value = values.get(i);
+                int shared = 0;
+                if (i % BLOCK == 0) {
+                    blockOffsets[i / BLOCK] = data.length();
+                } else {
+                    int common = Math.min(previous.length(), value.length());
+                    while (shared < common && previous.charAt(shared) == value.charAt(shared)) shared++;
+                }
+                data.append((char) shared).append((char) (value.length() - shared)).append(value, shared, value.length());
+                maxLength = Math.max(maxLength, value.length());
+                previous = value;
+
+                String permission = entries.get(value);
+                if (permission != null) {
+                    Integer id = permissionIndex.get(permission);
+                    if (id == null) {
+                        id = permissions.size();
+                        if (id > Character.MAX_VALUE) {
+                            throw new IllegalArgumentException("Слишком много разных прав в одном списке");
+                        }
+                        permissionIndex.put(permission, id);
+                        permissions.add(permission);
+                    }
+                    permissionIds[i] = (char) id.intValue();
+                }
+            }
+
+            char[] packed = new char[data.length()];
+            data.getChars(0, data.length(), packed, 0);
+            return new CompactValueList(packed, blockOffsets, permissionIds, permissions.toArray(new String[0]), maxLength);
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package com.mishkaworld.cbu;
+
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.entity.Player;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+// Кэш решений по игрокам: узел правила и проверяемые аргументы → PermissionResult,
+// право → результат hasPermission.
+// Принадлежит снимку правил, поэтому /cbu reload начинает с пустого кэша. Записи игрока
+// сбрасываются при выходе, смене мира и через invalidate(UUID), который могут вызывать
+// плагины прав при изменении прав игрока.
+public class PermissionCache {
+    private final boolean enabled;
+    private final int maxDecisions;
+    private final long expireNanos;
+    private final Map<UUID, PlayerCache> players = new ConcurrentHashMap<>();
+
+    public PermissionCache(boolean enabled, int maxDecisions, long expireSeconds) {
+        this.enabled = enabled;
+        this.maxDecisions = Math.max(1, maxDecisions);
+        this.expireNanos = TimeUnit.SECONDS.toNanos(Math.max(1, expireSeconds));
+    }
+
+    public static PermissionCache fromConfig(ConfigurationSection config) {
+        return new PermissionCache(
+                config.getBoolean("permission-cache.enabled", true),
+                config.getInt("permission-cache.size", 64),
+                config.getLong("permission-cache.expire-seconds", 60));
+    }
+
+    public static PermissionCache disabled() {
+        return new PermissionCache(false, 1, 1);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    // Кэш игрока или null, если кэширование выключено
+    public PlayerCache forPlayer(Player player) {
+        if (!enabled) return null;
+
+        UUID uuid = player.getUniqueId();
+        PlayerCache cache = players.get(uuid);
+        if (cache == null) {
+            PlayerCache created = new PlayerCache(maxDecisions, expireNanos);
+            cache = players.putIfAbsent(uuid, created);
+            if (cache == null) {
+                cache = created;
+            }
+        }
+        return cache;
+    }
+
+    public boolean hasPermission(Player player, String permission) {
+        if (permission == null || permission.equalsIgnoreCase("none")) return true;
+
+        PlayerCache cache = forPlayer(player);
+        return cache != null ? cache.hasPermission(player, permission) : player.hasPermission(permission);
+    }
+
+    // Публичный API для плагинов прав: вызывать после изменения прав игрока
+    public void invalidate(UUID uuid) {
+        players.remove(uuid);
+    }
+
+    public void invalidateAll() {
+        players.clear();
+    }
+
+    public int size() {
+        return players.size();
+    }
+
+    public static final class PlayerCache {
+        private long filledSince = System.nanoTime();
+        private final long expireNanos;
+
+        // Небольшая таблица решений с вытеснением самой давно использованной записи
+        private final CommandTrie.Node[] nodes;
+        private final int[] hashes;
+        private final String[] keys;
+        private final PermissionChecker.PermissionResult[] results;
+        private final long[] lastUsed;
+        private long clock;
+
+        private final Map<String, Boolean> permissions = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                return size() > 512;
+            }
+        };
+
+        private PlayerCache(int maxDecisions, long expireNanos) {
+            this.expireNanos = expireNanos;
+            this.nodes = new CommandTrie.Node[maxDecisions];
+            this.hashes = new int[maxDecisions];
+            this.keys = new String[maxDecisions];
+            this.results = new PermissionChecker.PermissionResult[maxDecisions];
+            this.lastUsed = new long[maxDecisions];
+        }
+
+        private boolean isExpired() {
+            return System.nanoTime() - filledSince > expireNanos;
+        }
+
+        public synchronized PermissionChecker.PermissionResult getDecision(CommandTrie.Node node, CommandLine line) {
+            if (isExpired()) {
+                clear();
+                return null;
+            }
+
+            int hash = node.decisionHash(line);
+            for (int i = 0; i < keys.length; i++) {
+                if (nodes[i] == node && hashes[i] == hash && node.decisionEquals(keys[i], line)) {
+                    lastUsed[i] = ++clock;
+                    return results[i];
+                }
+            }
+            return null;
+        }
+
+        public synchronized void putDecision(CommandTrie.Node node, CommandLine line, PermissionChecker.PermissionResult result) {
+            int slot = 0;
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] == null) {
+                    slot = i;
+                    break;
+                }
+                if (lastUsed[i] < lastUsed[slot]) {
+                    slot = i;
+                }
+            }
+
+            nodes[slot] = node;
+            hashes[slot] = node.decisionHash(line);
+            keys[slot] = node.decisionKey(line);
+            results[slot] = result;
+            lastUsed[slot] = ++clock;
+        }
+
+        public synchronized boolean hasPermission(Player player, String permission) {
+            if (isExpired()) {
+                clear();
+            }
+
+            Boolean cached = permissions.get(permission);
+            if (cached == null) {
+                cached = player.hasPermission(permission);
+                permissions.put(permission, cached);
+            }
+            return cached;
+        }
+
+        // Записи живут не дольше expire-seconds на случай изменений прав без событий
+        private void clear() {
+            Arrays.fill(nodes, null);
+            Arrays.fill(keys, null);
+            Arrays.fill(results, null);
+            permissions.clear();
+            filledSince = System.nanoTime();
+        }
+    }
+}
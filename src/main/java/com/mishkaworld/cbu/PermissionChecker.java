@@ -1,7 +1,7 @@
 package com.mishkaworld.cbu;
 
 import org.bukkit.entity.Player;
-import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.permissions.Permissible;
 import org.bukkit.configuration.file.FileConfiguration;
 import java.util.List;
 import java.util.Map;
@@ -9,253 +9,207 @@ import java.util.HashMap;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Objects;
+import java.util.Set;
+import java.util.HashSet;
 
 public class PermissionChecker {
-    private final FileConfiguration config;
     private final Map<String, CommandConfig> commandConfigs = new HashMap<>();
     private final Map<String, SuperCommandConfig> superCommandConfigs = new HashMap<>();
+    private final CommandTrie commandTrie;
+    private final PermissionCache permissionCache;
+    private final VisibleCommandIndex visibleCommandIndex;
+    // Метки команд сервера (minecraft:gamemode, essentials:gm), сведённые к узлам дерева
+    private volatile TokenMap<CommandTrie.Node> serverAliases = TokenMap.empty();
 
     public PermissionChecker(FileConfiguration config) {
-        this.config = config;
-        loadCommandConfigs();
+        this(config, PermissionCache.disabled());
     }
 
-    private void loadCommandConfigs() {
-        loadRegularCommands();
-        loadSuperCommands();
+    public PermissionChecker(FileConfiguration config, PermissionCache permissionCache) {
+        this(Collections.singletonList(RuleFragment.parse("config.yml", config)), permissionCache);
     }
 
-    private void loadRegularCommands() {
-        ConfigurationSection commandsSection = config.getConfigurationSection("commands");
-        if (commandsSection == null) return;
-
-        for (String commandName : commandsSection.getKeys(false)) {
-            ConfigurationSection commandSection = commandsSection.getConfigurationSection(commandName);
-            if (commandSection == null) continue;
-
-            CommandConfig commandConfig = new CommandConfig();
-            commandConfig.setMainCommand(commandName);
-            commandConfig.setPermission(commandSection.getString("permission"));
-            commandConfig.setAliases(commandSection.getStringList("aliases"));
-            loadArguments(commandSection, commandConfig);
-
-            commandConfigs.put(commandName, commandConfig);
-        }
+    public PermissionChecker(List<RuleFragment> fragments, PermissionCache permissionCache) {
+        this(fragments, permissionCache, null);
     }
 
-    private void loadSuperCommands() {
-        ConfigurationSection superCommandsSection = config.getConfigurationSection("super-commands");
-        if (superCommandsSection == null) return;
-
-        for (String commandName : superCommandsSection.getKeys(false)) {
-            ConfigurationSection commandSection = superCommandsSection.getConfigurationSection(commandName);
-            if (commandSection == null) continue;
-
-            SuperCommandConfig superCommandConfig = new SuperCommandConfig();
-            superCommandConfig.setPermission(commandSection.getString("permission"));
-            loadSubCommands(commandSection, superCommandConfig, commandName);
-
-            superCommandConfigs.put(commandName, superCommandConfig);
-        }
+    // Фрагменты сливаются по порядку: config.yml, затем commands/*.yml.
+    // valueLists - откуда брать lists-file; null - правила с lists-file не компилируются
+    public PermissionChecker(List<RuleFragment> fragments, PermissionCache permissionCache, ValueListStore valueLists) {
+        this.permissionCache = permissionCache;
+        RuleFragment.merge(fragments, commandConfigs, superCommandConfigs);
+        this.commandTrie = new CommandTrie(commandConfigs, superCommandConfigs, valueLists);
+        this.visibleCommandIndex = new VisibleCommandIndex(commandConfigs, superCommandConfigs);
     }
 
-    private void loadArguments(ConfigurationSection commandSection, CommandConfig commandConfig) {
-        ConfigurationSection argumentsSection = commandSection.getConfigurationSection("arguments");
-        if (argumentsSection == null) return;
-
-        for (String argName : argumentsSection.getKeys(false)) {
-            ConfigurationSection argSection = argumentsSection.getConfigurationSection(argName);
-            if (argSection == null) continue;
-
-            ArgumentConfig argConfig = new ArgumentConfig();
-            argConfig.setPermission(argSection.getString("permission"));
-            loadArgumentLists(argSection, argConfig);
+    private static final PermissionResult NOT_FOUND = new PermissionResult(false, "Команда не найдена в конфиге");
+    private static final PermissionResult NOT_LISTED = new PermissionResult(true, "Команды нет в конфиге");
 
-            commandConfig.addArgument(argName, argConfig);
+    // Совместимость со старым API: собираем строку из уже разобранных частей
+    public PermissionResult checkPermission(Player player, CommandBlockerUltra.CommandInfo commandInfo) {
+        StringBuilder builder = new StringBuilder(commandInfo.getMainCommand());
+        for (String argument : commandInfo.getArguments()) {
+            builder.append(' ').append(argument);
         }
+        return checkPermission(player, new CommandLine().parse(builder.toString()));
     }
 
-    private void loadSubCommands(ConfigurationSection commandSection, SuperCommandConfig superCommandConfig, String mainCommandName) {
-        ConfigurationSection subcommandsSection = commandSection.getConfigurationSection("subcommands");
-        if (subcommandsSection == null) return;
-
-        for (String subcommandName : subcommandsSection.getKeys(false)) {
-            ConfigurationSection subcommandSection = subcommandsSection.getConfigurationSection(subcommandName);
-            if (subcommandSection == null) continue;
-
-            SubCommandConfig subCommandConfig = new SubCommandConfig();
-            subCommandConfig.setSubCommandName(subcommandName);
-            subCommandConfig.setPermission(subcommandSection.getString("permission"));
-            loadSubCommandArguments(subcommandSection, subCommandConfig);
-
-            superCommandConfig.addSubCommand(subcommandName, subCommandConfig);
+    // Основной путь: токены сравниваются прямо в исходном сообщении,
+    // разрешённая команда не создаёт ни одного объекта
+    public PermissionResult checkPermission(Player player, CommandLine line) {
+        PermissionCache.PlayerCache cache = permissionCache.forPlayer(player);
+        if (cache == null) {
+            return evaluate(player, line);
         }
-    }
 
-    private void loadSubCommandArguments(ConfigurationSection subcommandSection, SubCommandConfig subCommandConfig) {
-        ConfigurationSection argumentsSection = subcommandSection.getConfigurationSection("arguments");
-        if (argumentsSection == null) return;
-
-        for (String argName : argumentsSection.getKeys(false)) {
-            ConfigurationSection argSection = argumentsSection.getConfigurationSection(argName);
-            if (argSection == null) continue;
-
-            ArgumentConfig argConfig = new ArgumentConfig();
-            argConfig.setPermission(argSection.getString("permission"));
-            loadArgumentLists(argSection, argConfig);
+        CommandTrie.Node node = resolveRule(line);
+        if (node == null) {
+            return NOT_FOUND;
+        }
 
-            subCommandConfig.addArgument(argName, argConfig);
+        // Повторные команды (/home, /tpa) решаются одним поиском в кэше игрока;
+        // /msg с разным текстом попадает в одну запись
+        PermissionResult result = cache.getDecision(node, line);
+        if (result == null) {
+            result = checkRule(player, node, line);
+            cache.putDecision(node, line, result);
         }
+        return result;
     }
 
-    private void loadArgumentLists(ConfigurationSection argSection, ArgumentConfig argConfig) {
-        ConfigurationSection listsSection = argSection.getConfigurationSection("lists");
-        if (listsSection == null) return;
-
-        for (String listKey : listsSection.getKeys(false)) {
-            argConfig.addListValue(listKey, listsSection.getString(listKey));
+    // Командные блоки, вагонетки и консоль: права отправителя без кэша игрока
+    public PermissionResult checkPermission(Permissible sender, CommandLine line) {
+        if (sender instanceof Player) {
+            return checkPermission((Player) sender, line);
         }
+        return evaluate(sender, line);
     }
 
-    public PermissionResult checkPermission(Player player, CommandBlockerUltra.CommandInfo commandInfo) {
-        String mainCommand = commandInfo.getMainCommand();
-        String[] args = commandInfo.getArguments();
-
-        // Проверяем обычные команды
-        PermissionResult result = checkRegularCommands(player, commandInfo, mainCommand);
-        if (result != null) return result;
+    // Политика rules для командных блоков и консоли: правила конфига ограничивают перечисленные в нём
+    // команды, а остальные (/stop, /lp, /cbu reload) отправителю-не-игроку разрешены
+    public PermissionResult checkNonPlayerPermission(Permissible sender, CommandLine line) {
+        PermissionResult result = checkPermission(sender, line);
+        return result == NOT_FOUND ? NOT_LISTED : result;
+    }
 
-        // Проверяем супер-команды
-        return checkSuperCommands(player, mainCommand, args);
+    private PermissionResult evaluate(Permissible sender, CommandLine line) {
+        CommandTrie.Node node = resolveRule(line);
+        return node != null ? checkRule(sender, node, line) : NOT_FOUND;
     }
 
-    private PermissionResult checkRegularCommands(Player player, CommandBlockerUltra.CommandInfo commandInfo, String mainCommand) {
-        // Прямая проверка
-        CommandConfig commandConfig = commandConfigs.get(mainCommand);
-        if (commandConfig != null) {
-            return checkRegularCommandPermission(player, commandInfo, commandConfig);
+    // Узел правила для строки: обычная команда или субкоманда супер-команды, null - правила нет
+    private CommandTrie.Node resolveRule(CommandLine line) {
+        CommandTrie.Node node = resolveRoot(line.getMessage(), line.start(0), line.end(0));
+        if (node == null || !node.isSuperCommand()) {
+            return node;
         }
 
-        // Проверка алиасов
-        for (CommandConfig config : commandConfigs.values()) {
-            if (config.hasAlias(mainCommand)) {
-                return checkRegularCommandPermission(player, commandInfo, config);
-            }
+        // Супер-команда: первый аргумент - субкоманда, остальные - её аргументы
+        if (line.getArgumentCount() == 0) {
+            return null;
         }
+        return node.getSubCommand(line, 1);
+    }
 
-        return null;
+    private PermissionResult checkRule(Permissible sender, CommandTrie.Node node, CommandLine line) {
+        String deniedPrefix = node.getType() == CommandTrie.NodeType.SUB ? "Нет прав на субкоманду: " : "Нет прав на команду: ";
+        return checkNodePermission(sender, node, line, node.getFirstArgument(), deniedPrefix);
     }
 
-    private PermissionResult checkSuperCommands(Player player, String mainCommand, String[] args) {
-        if (args.length == 0) {
-            return new PermissionResult(false, "Команда не найдена в конфиге");
-        }
+    // Команда из конфига, метка той же команды сервера или namespace:команда
+    public CommandTrie.Node resolveRoot(String text, int start, int end) {
+        CommandTrie.Node node = commandTrie.getRoot(text, start, end);
+        if (node != null) return node;
 
-        String subCommand = args[0];
-        String[] subArgs = createSubArgs(args);
+        node = serverAliases.get(text, start, end);
+        if (node != null) return node;
 
-        // Прямая проверка
-        SuperCommandConfig superCommandConfig = superCommandConfigs.get(mainCommand);
-        if (superCommandConfig != null) {
-            SubCommandConfig subConfig = superCommandConfig.getSubCommand(subCommand);
-            if (subConfig != null) {
-                return checkSubCommandPermission(player, subConfig, subArgs);
-            }
+        // Метки нет в CommandMap - просто отбрасываем пространство имён
+        int colon = text.indexOf(':', start);
+        if (colon >= 0 && colon < end - 1) {
+            return commandTrie.getRoot(text, colon + 1, end);
         }
-
-        // Проверка алиасов
-        for (SuperCommandConfig config : superCommandConfigs.values()) {
-            if (config.hasAlias(mainCommand)) {
-                SubCommandConfig subConfig = config.getSubCommand(subCommand);
-                if (subConfig != null) {
-                    return checkSubCommandPermission(player, subConfig, subArgs);
-                }
-            }
-        }
-
-        return new PermissionResult(false, "Команда не найдена в конфиге");
+        return null;
     }
 
-    private String[] createSubArgs(String[] args) {
-        if (args.length <= 1) return new String[0];
-        String[] subArgs = new String[args.length - 1];
-        System.arraycopy(args, 1, subArgs, 0, args.length - 1);
-        return subArgs;
+    // Вызывается при обновлении CommandMap и для нового набора правил при перезагрузке
+    public void applyServerAliases(ServerCommandAliases aliases) {
+        this.serverAliases = aliases.resolve(commandTrie);
+        permissionCache.invalidateAll();
     }
 
-    private PermissionResult checkRegularCommandPermission(Player player, CommandBlockerUltra.CommandInfo commandInfo, CommandConfig commandConfig) {
-        // Проверяем права на основную команду
-        if (!hasPermission(player, commandConfig.getPermission())) {
-            return new PermissionResult(false, "Нет прав на команду: " + commandConfig.getPermission());
+    private PermissionResult checkNodePermission(Permissible sender, CommandTrie.Node node, CommandLine line,
+                                                 int firstArgument, String deniedPrefix) {
+        // Проверяем права на команду/субкоманду
+        if (!hasPermission(sender, node.getPermission())) {
+            return new PermissionResult(false, deniedPrefix + node.getPermission(), node.getPath());
         }
 
         // Проверяем аргументы
-        return checkArguments(player, commandInfo.getArguments(), commandConfig.getArguments());
+        return checkArguments(sender, line, firstArgument, node);
     }
 
-    private PermissionResult checkSubCommandPermission(Player player, SubCommandConfig subCommandConfig, String[] subArgs) {
-        // Проверяем права на субкоманду
-        if (!hasPermission(player, subCommandConfig.getPermission())) {
-            return new PermissionResult(false, "Нет прав на субкоманду: " + subCommandConfig.getPermission());
-        }
-
-        // Проверяем аргументы
-        return checkArguments(player, subArgs, subCommandConfig.getArguments());
+    // Единая проверка права для команд, автодополнения и списка команд клиента
+    public boolean hasPermission(Player player, String permission) {
+        return permissionCache.hasPermission(player, permission);
     }
 
-    private boolean hasPermission(Player player, String permission) {
-        return permission == null || permission.equalsIgnoreCase("none") || player.hasPermission(permission);
+    private boolean hasPermission(Permissible sender, String permission) {
+        if (sender instanceof Player) {
+            return permissionCache.hasPermission((Player) sender, permission);
+        }
+        return permission == null || permission.equalsIgnoreCase("none") || sender.hasPermission(permission);
     }
 
-    private PermissionResult checkArguments(Player player, String[] args, Map<String, ArgumentConfig> arguments) {
-        for (int i = 0; i < args.length; i++) {
-            String argKey = "arg#" + (i + 1);
-            ArgumentConfig argConfig = arguments.get(argKey);
-            if (argConfig == null) continue;
+    private PermissionResult checkArguments(Permissible sender, CommandLine line, int firstArgument, CommandTrie.Node node) {
+        for (int i = firstArgument; i < line.size(); i++) {
+            CommandTrie.Argument argument = node.getArgument(i - firstArgument + 1);
+            if (argument == null) continue;
 
             // Проверяем права на аргумент
-            if (!hasPermission(player, argConfig.getPermission())) {
-                return new PermissionResult(false, "Нет прав на аргумент: " + argConfig.getPermission());
+            if (!hasPermission(sender, argument.getPermission())) {
+                return new PermissionResult(false, "Нет прав на аргумент: " + argument.getPermission(), node.getPath());
             }
 
-            // Проверяем списки значений
-            if (!argConfig.getLists().isEmpty()) {
-                PermissionResult listResult = checkListValue(player, args[i], argConfig.getLists());
-                if (!listResult.allowed) {
+            // Тип проверяется до списков: /give @a tnt 99999 отсекается без поиска по значениям
+            ArgumentType type = argument.getType();
+            if (type != null && !type.accepts(line, i)) {
+                return new PermissionResult(false, "Значение аргумента '" + line.token(i) + "' не подходит под " + type.getSource(), node.getPath());
+            }
+
+            // Проверяем списки значений и шаблоны
+            if (argument.hasValueRules()) {
+                PermissionResult listResult = checkListValue(sender, line, i, argument, node);
+                if (listResult != null) {
                     return listResult;
                 }
             }
         }
 
-        return new PermissionResult(true, "Все права проверены успешно");
+        return node.getAllowedResult();
     }
 
-    private PermissionResult checkListValue(Player player, String argValue, Map<String, String> lists) {
-        boolean foundInList = false;
-        boolean hasPermissionForValue = false;
-
-        for (Map.Entry<String, String> entry : lists.entrySet()) {
-            String listKey = entry.getKey();
-            String permission = entry.getValue();
-
-            if (listKey.equals(argValue)) {
-                foundInList = true;
-                if (hasPermission(player, permission)) {
-                    hasPermissionForValue = true;
-                    break;
-                }
+    // null - значение разрешено, иначе причина отказа. Сначала точное значение из lists, затем шаблоны
+    private PermissionResult checkListValue(Permissible sender, CommandLine line, int token, CommandTrie.Argument argument,
+                                            CommandTrie.Node node) {
+        int index = argument.indexOfValue(line, token);
+        String permission;
+        if (index >= 0) {
+            permission = argument.getValuePermission(index);
+        } else {
+            ArgumentPatterns patterns = argument.getPatterns();
+            int rule = patterns != null ? patterns.match(line, token) : -1;
+            if (rule < 0) {
+                return new PermissionResult(false, "Значение аргумента '" + line.token(token) + "' не найдено в списке допустимых значений", node.getPath());
             }
+            permission = patterns.getPermission(rule);
         }
 
-        if (!foundInList) {
-            return new PermissionResult(false, "Значение аргумента '" + argValue + "' не найдено в списке допустимых значений");
+        if (!hasPermission(sender, permission)) {
+            return new PermissionResult(false, "Нет прав на значение аргумента: " + line.token(token), node.getPath());
         }
 
-        if (!hasPermissionForValue) {
-            return new PermissionResult(false, "Нет прав на значение аргумента: " + argValue);
-        }
-
-        return new PermissionResult(true, "Значение аргумента проверено успешно");
+        return null;
     }
 
     public static class CommandConfig {
@@ -368,6 +322,11 @@ public class PermissionChecker {
     public static class ArgumentConfig {
         private String permission;
         private Map<String, String> lists = new HashMap<>();
+        private List<String> patterns = new ArrayList<>();
+        // Описание ArgumentType ("int 1..64") или null
+        private String type;
+        // Путь файла со списком значений или null
+        private String listsFile;
 
         public void setPermission(String permission) {
             this.permission = permission;
@@ -384,14 +343,44 @@ public class PermissionChecker {
         public Map<String, String> getLists() {
             return lists;
         }
+
+        public void setPatterns(List<String> patterns) {
+            this.patterns = patterns != null ? new ArrayList<>(patterns) : new ArrayList<>();
+        }
+
+        public List<String> getPatterns() {
+            return patterns;
+        }
+
+        public void setType(String type) {
+            this.type = type;
+        }
+
+        public String getType() {
+            return type;
+        }
+
+        public void setListsFile(String listsFile) {
+            this.listsFile = listsFile;
+        }
+
+        public String getListsFile() {
+            return listsFile;
+        }
     }
 
     public static class PermissionResult {
         public final boolean allowed;
         public final String message;
+        // Путь сработавшего правила ("gamemode", "cmi gm"), null если команда не найдена в конфиге
+        public final String rule;
         public PermissionResult(boolean allowed, String message) {
+            this(allowed, message, null);
+        }
+        public PermissionResult(boolean allowed, String message, String rule) {
             this.allowed = allowed;
             this.message = message;
+            this.rule = rule;
         }
     }
 
@@ -402,4 +391,39 @@ public class PermissionChecker {
     public Map<String, SuperCommandConfig> getSuperCommandConfigs() {
         return superCommandConfigs;
     }
+
+    // Все lists-file, на которые ссылаются правила
+    public Set<String> getListFiles() {
+        Set<String> files = new HashSet<>();
+        for (CommandConfig config : commandConfigs.values()) {
+            collectListFiles(config.getArguments(), files);
+        }
+        for (SuperCommandConfig config : superCommandConfigs.values()) {
+            for (SubCommandConfig sub : config.getSubCommands().values()) {
+                collectListFiles(sub.getArguments(), files);
+            }
+        }
+        return files;
+    }
+
+    static void collectListFiles(Map<String, ArgumentConfig> arguments, Set<String> files) {
+        for (ArgumentConfig argument : arguments.values()) {
+            if (argument.getListsFile() != null) {
+                files.add(argument.getListsFile());
+            }
+        }
+    }
+
+    public PermissionCache getPermissionCache() {
+        return permissionCache;
+    }
+
+    public CommandTrie getCommandTrie() {
+        return commandTrie;
+    }
+
+    // Готовый общий набор команд для профиля прав игрока
+    public Set<String> getVisibleCommands(Player player) {
+        return visibleCommandIndex.getVisibleCommands(player, this);
+    }
 } 
\ No newline at end of file
@@ -0,0 +1,73 @@
+package com.mishkaworld.cbu;
+
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.BiPredicate;
+
+// Онлайн-игроки, отсортированные по имени в нижнем регистре. Обновляется по входу и выходу,
+// поэтому автодополнение не собирает список из Bukkit.getOnlinePlayers() на каждое нажатие.
+// Потокобезопасен - используется и из асинхронного автодополнения.
+public class PlayerNameIndex implements Listener {
+    private final ConcurrentSkipListMap<String, Player> players = new ConcurrentSkipListMap<>();
+    private volatile BiPredicate<Player, Player> visibility = Player::canSee;
+
+    public void addAll(Iterable<? extends Player> onlinePlayers) {
+        for (Player player : onlinePlayers) {
+            add(player);
+        }
+    }
+
+    public void add(Player player) {
+        players.put(player.getName().toLowerCase(), player);
+    }
+
+    public void remove(Player player) {
+        players.remove(player.getName().toLowerCase(), player);
+    }
+
+    public int size() {
+        return players.size();
+    }
+
+    // Для плагинов ваниша: (кто смотрит, кого показываем) → показывать ли имя
+    public void setVisibilityPredicate(BiPredicate<Player, Player> visibility) {
+        this.visibility = visibility != null ? visibility : Player::canSee;
+    }
+
+    // Добавляет не больше limit имён, начинающихся с prefix (в нижнем регистре); возвращает число добавленных
+    public int collect(Player viewer, String prefix, int limit, List<String> out) {
+        BiPredicate<Player, Player> visibility = this.visibility;
+        ConcurrentNavigableMap<String, Player> range = players.tailMap(prefix, true);
+
+        int added = 0;
+        for (Map.Entry<String, Player> entry : range.entrySet()) {
+            if (added >= limit || !entry.getKey().startsWith(prefix)) break;
+
+            Player target = entry.getValue();
+            if (target == viewer || visibility.test(viewer, target)) {
+                out.add(target.getName());
+                added++;
+            }
+        }
+        return added;
+    }
+
+    @EventHandler(priority = EventPriority.LOWEST)
+    public void onPlayerJoin(PlayerJoinEvent event) {
+        add(event.getPlayer());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerQuit(PlayerQuitEvent event) {
+        remove(event.getPlayer());
+    }
+}
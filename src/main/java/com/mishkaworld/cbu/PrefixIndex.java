@@ -0,0 +1,110 @@
+package com.mishkaworld.cbu;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+// Отсортированный по ключу в нижнем регистре массив вариантов автодополнения.
+// Поиск по префиксу - два бинарных поиска, возвращающие диапазон [from, to),
+// вместо toLowerCase и startsWith по каждому варианту на каждое нажатие клавиши.
+public final class PrefixIndex {
+    private static final PrefixIndex EMPTY = new Builder().build();
+
+    private final String[] keys;
+    private final String[] values;
+    private final String[] permissions;
+
+    private PrefixIndex(String[] keys, String[] values, String[] permissions) {
+        this.keys = keys;
+        this.values = values;
+        this.permissions = permissions;
+    }
+
+    public static PrefixIndex empty() {
+        return EMPTY;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public int size() {
+        return keys.length;
+    }
+
+    public String getValue(int index) {
+        return values[index];
+    }
+
+    public String getPermission(int index) {
+        return permissions[index];
+    }
+
+    // Первый индекс, ключ которого начинается с prefix (или больше него); prefix - в нижнем регистре
+    public int from(String prefix) {
+        int low = 0;
+        int high = keys.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (comparePrefix(keys[middle], prefix) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    // Индекс сразу после последнего ключа, начинающегося с prefix
+    public int to(String prefix) {
+        int low = 0;
+        int high = keys.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (comparePrefix(keys[middle], prefix) <= 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    // Сравнивает начало ключа длиной prefix.length() с prefix без создания подстрок
+    private static int comparePrefix(String key, String prefix) {
+        int length = Math.min(key.length(), prefix.length());
+        for (int i = 0; i < length; i++) {
+            int difference = key.charAt(i) - prefix.charAt(i);
+            if (difference != 0) {
+                return difference;
+            }
+        }
+        return key.length() < prefix.length() ? -1 : 0;
+    }
+
+    public static final class Builder {
+        private final List<String[]> entries = new ArrayList<>();
+
+        public Builder add(String value, String permission) {
+            if (value != null) {
+                entries.add(new String[]{value.toLowerCase(), value, permission});
+            }
+            return this;
+        }
+
+        public PrefixIndex build() {
+            entries.sort(Comparator.comparing(entry -> entry[0]));
+
+            String[] keys = new String[entries.size()];
+            String[] values = new String[entries.size()];
+            String[] permissions = new String[entries.size()];
+            for (int i = 0; i < entries.size(); i++) {
+                String[] entry = entries.get(i);
+                keys[i] = entry[0];
+                values[i] = entry[1];
+                permissions[i] = entry[2];
+            }
+            return new PrefixIndex(keys, values, permissions);
+        }
+    }
+}
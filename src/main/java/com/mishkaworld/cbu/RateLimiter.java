@@ -0,0 +1,230 @@
+package com.mishkaworld.cbu;
+
+import org.bukkit.configuration.ConfigurationSection;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Ведёрки токенов по игрокам. Ключ - UUID (две половины long) и номер ведёрка, всё хранится
+// в параллельных примитивных массивах с открытой адресацией. Токены пополняются лениво
+// по разнице System.nanoTime() при обращении, задач планировщика на игрока нет.
+// Таблица разбита на сегменты по UUID со своими замками: на Folia команды игроков из разных
+// регионов проверяются параллельно и почти никогда не ждут друг друга.
+public class RateLimiter {
+    // Один токен в единицах хранения: дробное пополнение без double в таблице
+    private static final long UNITS_PER_TOKEN = 1_000_000_000L;
+    private static final int SEGMENT_BITS = 4;
+
+    public static final int COMMANDS_BUCKET = 0;
+    public static final int TAB_COMPLETE_BUCKET = 1;
+    // Номера ведёрок команд по меткам, общие для всех снимков правил
+    private static final Map<String, Integer> COMMAND_BUCKETS = new ConcurrentHashMap<>();
+    private static final AtomicInteger NEXT_COMMAND_BUCKET = new AtomicInteger(TAB_COMPLETE_BUCKET + 1);
+
+    private final Segment[] segments = new Segment[1 << SEGMENT_BITS];
+
+    public RateLimiter() {
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = new Segment();
+        }
+    }
+
+    // Лимит одного ведёрка: запас capacity токенов и пополнение perSecond токенов в секунду
+    public static final class Limit {
+        private final int bucket;
+        private final long capacityUnits;
+        private final double unitsPerNano;
+
+        public Limit(int bucket, double capacity, double perSecond) {
+            this.bucket = bucket;
+            this.capacityUnits = (long) (Math.max(1, capacity) * UNITS_PER_TOKEN);
+            this.unitsPerNano = Math.max(0, perSecond);
+        }
+
+        // null, если секция не задана или лимит выключен (capacity <= 0)
+        public static Limit fromConfig(ConfigurationSection section, int bucket) {
+            if (section == null || section.getDouble("capacity", 0) <= 0) return null;
+            return new Limit(bucket, section.getDouble("capacity", 0), section.getDouble("per-second", 1));
+        }
+
+        // Отдельное ведёрко для команды: метке при первой загрузке выдаётся следующий номер,
+        // он не меняется до перезапуска, поэтому токены переживают перезагрузку правил
+        public static int commandBucket(String label) {
+            return COMMAND_BUCKETS.computeIfAbsent(label.toLowerCase(), key -> NEXT_COMMAND_BUCKET.getAndIncrement());
+        }
+    }
+
+    // 0 - токен выдан, иначе количество отказов подряд для этого ведёрка
+    public int acquire(UUID uuid, Limit limit, long now) {
+        return acquire(uuid, limit, null, now);
+    }
+
+    // Два ведёрка (общее и команды): токены списываются, только если выдают оба.
+    // Иначе ничего не списывается и возвращается число отказов подряд отказавшего ведёрка
+    public int acquire(UUID uuid, Limit first, Limit second, long now) {
+        long most = uuid.getMostSignificantBits();
+        long least = uuid.getLeastSignificantBits();
+        return segment(most, least).acquire(most, least, first, second, now);
+    }
+
+    // Удаляет все ведёрки игрока; вызывается при выходе
+    public void remove(UUID uuid) {
+        long most = uuid.getMostSignificantBits();
+        long least = uuid.getLeastSignificantBits();
+        segment(most, least).remove(most, least);
+    }
+
+    public void clear() {
+        for (Segment segment : segments) {
+            segment.clear();
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    // Старшие биты другого перемешивания, чем у hash(): внутри сегмента слоты распределены равномерно
+    private Segment segment(long most, long least) {
+        return segments[(int) (((most ^ least) * 0xC2B2AE3D27D4EB4FL) >>> (64 - SEGMENT_BITS))];
+    }
+
+    private static final class Segment {
+        private long[] uuidMost;
+        private long[] uuidLeast;
+        private int[] buckets;
+        private long[] tokens;
+        private long[] updatedAt;
+        private int[] violations;
+        private boolean[] used;
+        private int mask;
+        private int size;
+
+        Segment() {
+            allocate(32);
+        }
+
+        synchronized int acquire(long most, long least, Limit first, Limit second, long now) {
+            int secondSlot = second != null ? refill(most, least, second, now) : -1;
+            // После вставки второго ведёрка таблица могла перестроиться - первое ищем после него
+            int firstSlot = refill(most, least, first, now);
+            if (second != null) {
+                secondSlot = findOrInsert(most, least, second.bucket, second.capacityUnits, now);
+            }
+
+            if (tokens[firstSlot] < UNITS_PER_TOKEN) return ++violations[firstSlot];
+            if (secondSlot >= 0 && tokens[secondSlot] < UNITS_PER_TOKEN) return ++violations[secondSlot];
+
+            tokens[firstSlot] -= UNITS_PER_TOKEN;
+            violations[firstSlot] = 0;
+            if (secondSlot >= 0) {
+                tokens[secondSlot] -= UNITS_PER_TOKEN;
+                violations[secondSlot] = 0;
+            }
+            return 0;
+        }
+
+        private int refill(long most, long least, Limit limit, long now) {
+            int slot = findOrInsert(most, least, limit.bucket, limit.capacityUnits, now);
+
+            long elapsed = now - updatedAt[slot];
+            if (elapsed > 0) {
+                double refill = Math.min(elapsed * limit.unitsPerNano, (double) limit.capacityUnits);
+                tokens[slot] = Math.min(limit.capacityUnits, tokens[slot] + (long) refill);
+                updatedAt[slot] = now;
+            }
+            return slot;
+        }
+
+        // Полный проход по сегменту допустим: вызывается только при выходе игрока
+        synchronized void remove(long most, long least) {
+            rebuild(uuidMost.length, most, least);
+        }
+
+        synchronized void clear() {
+            allocate(32);
+        }
+
+        synchronized int size() {
+            return size;
+        }
+
+        private int findOrInsert(long most, long least, int bucket, long initialTokens, long now) {
+            int slot = hash(most, least, bucket) & mask;
+            while (used[slot]) {
+                if (uuidMost[slot] == most && uuidLeast[slot] == least && buckets[slot] == bucket) {
+                    return slot;
+                }
+                slot = (slot + 1) & mask;
+            }
+
+            if ((size + 1) * 2 > uuidMost.length) {
+                rebuild(uuidMost.length * 2, 0, 0);
+                return findOrInsert(most, least, bucket, initialTokens, now);
+            }
+
+            used[slot] = true;
+            uuidMost[slot] = most;
+            uuidLeast[slot] = least;
+            buckets[slot] = bucket;
+            tokens[slot] = initialTokens;
+            updatedAt[slot] = now;
+            violations[slot] = 0;
+            size++;
+            return slot;
+        }
+
+        // Перекладывает записи в таблицу нового размера, пропуская ведёрки игрока (skipMost, skipLeast).
+        // Нулевой UUID не выдаётся игрокам, поэтому (0, 0) значит "ничего не пропускать"
+        private void rebuild(int capacity, long skipMost, long skipLeast) {
+            long[] oldMost = uuidMost;
+            long[] oldLeast = uuidLeast;
+            int[] oldBuckets = buckets;
+            long[] oldTokens = tokens;
+            long[] oldUpdatedAt = updatedAt;
+            int[] oldViolations = violations;
+            boolean[] oldUsed = used;
+
+            allocate(capacity);
+            for (int i = 0; i < oldUsed.length; i++) {
+                if (!oldUsed[i] || (oldMost[i] == skipMost && oldLeast[i] == skipLeast)) continue;
+
+                int slot = hash(oldMost[i], oldLeast[i], oldBuckets[i]) & mask;
+                while (used[slot]) {
+                    slot = (slot + 1) & mask;
+                }
+                used[slot] = true;
+                uuidMost[slot] = oldMost[i];
+                uuidLeast[slot] = oldLeast[i];
+                buckets[slot] = oldBuckets[i];
+                tokens[slot] = oldTokens[i];
+                updatedAt[slot] = oldUpdatedAt[i];
+                violations[slot] = oldViolations[i];
+                size++;
+            }
+        }
+
+        private void allocate(int capacity) {
+            uuidMost = new long[capacity];
+            uuidLeast = new long[capacity];
+            buckets = new int[capacity];
+            tokens = new long[capacity];
+            updatedAt = new long[capacity];
+            violations = new int[capacity];
+            used = new boolean[capacity];
+            mask = capacity - 1;
+            size = 0;
+        }
+    }
+
+    private static int hash(long most, long least, int bucket) {
+        long hash = (most ^ least ^ bucket) * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32));
+    }
+}
@@ -0,0 +1,250 @@
+package com.mishkaworld.cbu;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Двоичный кэш разобранных правил (rules.cache в папке плагина). Ключ - хеш содержимого
+// config.yml и всех commands/*.yml; если он совпал, файл отображается в память и фрагменты
+// читаются напрямую, без SnakeYAML и обхода ConfigurationSection.
+public class RuleCache {
+    private static final int MAGIC = 0x43425552; // "CBUR"
+    private static final int VERSION = 3;
+
+    private final File file;
+
+    public RuleCache(File file) {
+        this.file = file;
+    }
+
+    // Фрагмент вместе с хешем исходного файла: нужен RuleLoader, чтобы потом не разбирать файл заново
+    public static final class Entry {
+        public final RuleFragment fragment;
+        public final byte[] hash;
+
+        public Entry(RuleFragment fragment, byte[] hash) {
+            this.fragment = fragment;
+            this.hash = hash;
+        }
+    }
+
+    // null - кэша нет, он от другого набора файлов или повреждён
+    public List<Entry> read(byte[] sourceHash) {
+        if (!file.isFile()) return null;
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) return null;
+
+            byte[] hash = readBytes(buffer);
+            if (!Arrays.equals(hash, sourceHash)) return null;
+
+            int count = buffer.getInt();
+            if (count < 0 || count > buffer.remaining()) return null;
+
+            List<Entry> entries = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                byte[] fileHash = readBytes(buffer);
+                entries.add(new Entry(readFragment(buffer), fileHash));
+            }
+            return entries;
+        } catch (IOException | BufferUnderflowException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    // Пишем во временный файл и переименовываем, чтобы не оставить половину кэша при сбое
+    public void write(byte[] sourceHash, List<Entry> entries) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 * 1024);
+        DataOutputStream out = new DataOutputStream(bytes);
+
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        writeBytes(out, sourceHash);
+        out.writeInt(entries.size());
+        for (Entry entry : entries) {
+            writeBytes(out, entry.hash);
+            writeFragment(out, entry.fragment);
+        }
+        out.flush();
+
+        File temp = new File(file.getParentFile(), file.getName() + ".tmp");
+        Files.write(temp.toPath(), bytes.toByteArray());
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Формат фрагмента общий с SharedRuleFile
+    static void writeFragment(DataOutputStream out, RuleFragment fragment) throws IOException {
+        writeString(out, fragment.getSource());
+
+        out.writeInt(fragment.getCommands().size());
+        for (Map.Entry<String, PermissionChecker.CommandConfig> entry : fragment.getCommands().entrySet()) {
+            PermissionChecker.CommandConfig command = entry.getValue();
+            writeString(out, entry.getKey());
+            writeString(out, command.getPermission());
+            writeStrings(out, command.getAliases());
+            writeArguments(out, command.getArguments());
+        }
+
+        out.writeInt(fragment.getSuperCommands().size());
+        for (Map.Entry<String, PermissionChecker.SuperCommandConfig> entry : fragment.getSuperCommands().entrySet()) {
+            writeString(out, entry.getKey());
+            writeString(out, entry.getValue().getPermission());
+
+            Map<String, PermissionChecker.SubCommandConfig> subCommands = entry.getValue().getSubCommands();
+            out.writeInt(subCommands.size());
+            for (Map.Entry<String, PermissionChecker.SubCommandConfig> sub : subCommands.entrySet()) {
+                writeString(out, sub.getKey());
+                writeString(out, sub.getValue().getPermission());
+                writeArguments(out, sub.getValue().getArguments());
+            }
+        }
+    }
+
+    static RuleFragment readFragment(ByteBuffer buffer) {
+        String source = readString(buffer);
+
+        int commandCount = buffer.getInt();
+        Map<String, PermissionChecker.CommandConfig> commands = new HashMap<>();
+        for (int i = 0; i < commandCount; i++) {
+            PermissionChecker.CommandConfig command = new PermissionChecker.CommandConfig();
+            String name = readString(buffer);
+            command.setMainCommand(name);
+            command.setPermission(readString(buffer));
+            command.setAliases(readStrings(buffer));
+            readArguments(buffer, command.getArguments());
+            commands.put(name, command);
+        }
+
+        int superCount = buffer.getInt();
+        Map<String, PermissionChecker.SuperCommandConfig> superCommands = new HashMap<>();
+        for (int i = 0; i < superCount; i++) {
+            String name = readString(buffer);
+            PermissionChecker.SuperCommandConfig superCommand = new PermissionChecker.SuperCommandConfig();
+            superCommand.setPermission(readString(buffer));
+
+            int subCount = buffer.getInt();
+            for (int j = 0; j < subCount; j++) {
+                PermissionChecker.SubCommandConfig sub = new PermissionChecker.SubCommandConfig();
+                String subName = readString(buffer);
+                sub.setSubCommandName(subName);
+                sub.setPermission(readString(buffer));
+                readArguments(buffer, sub.getArguments());
+                superCommand.addSubCommand(subName, sub);
+            }
+            superCommands.put(name, superCommand);
+        }
+
+        return new RuleFragment(source, commands, superCommands);
+    }
+
+    private static void writeArguments(DataOutputStream out, Map<String, PermissionChecker.ArgumentConfig> arguments) throws IOException {
+        out.writeInt(arguments.size());
+        for (Map.Entry<String, PermissionChecker.ArgumentConfig> entry : arguments.entrySet()) {
+            PermissionChecker.ArgumentConfig argument = entry.getValue();
+            writeString(out, entry.getKey());
+            writeString(out, argument.getPermission());
+
+            out.writeInt(argument.getLists().size());
+            for (Map.Entry<String, String> value : argument.getLists().entrySet()) {
+                writeString(out, value.getKey());
+                writeString(out, value.getValue());
+            }
+            writeStrings(out, argument.getPatterns());
+            writeString(out, argument.getType());
+            writeString(out, argument.getListsFile());
+        }
+    }
+
+    private static void readArguments(ByteBuffer buffer, Map<String, PermissionChecker.ArgumentConfig> arguments) {
+        int count = buffer.getInt();
+        for (int i = 0; i < count; i++) {
+            String name = readString(buffer);
+            PermissionChecker.ArgumentConfig argument = new PermissionChecker.ArgumentConfig();
+            argument.setPermission(readString(buffer));
+
+            int values = buffer.getInt();
+            for (int j = 0; j < values; j++) {
+                argument.addListValue(readString(buffer), readString(buffer));
+            }
+            argument.setPatterns(readStrings(buffer));
+            argument.setType(readString(buffer));
+            argument.setListsFile(readString(buffer));
+            arguments.put(name, argument);
+        }
+    }
+
+    private static void writeStrings(DataOutputStream out, List<String> values) throws IOException {
+        if (values == null) {
+            out.writeInt(0);
+            return;
+        }
+        out.writeInt(values.size());
+        for (String value : values) {
+            writeString(out, value);
+        }
+    }
+
+    private static List<String> readStrings(ByteBuffer buffer) {
+        int count = buffer.getInt();
+        if (count < 0 || count > buffer.remaining()) {
+            throw new IllegalArgumentException("Повреждённый кэш правил");
+        }
+
+        List<String> values = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            values.add(readString(buffer));
+        }
+        return values;
+    }
+
+    // Длина -1 - null (например, аргумент без permission)
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        writeBytes(out, value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) return null;
+        if (length > buffer.remaining()) {
+            throw new IllegalArgumentException("Повреждённый кэш правил");
+        }
+
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static byte[] readBytes(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0 || length > buffer.remaining()) {
+            throw new IllegalArgumentException("Повреждённый кэш правил");
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,117 @@
+package com.mishkaworld.cbu;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+// Разница между двумя наборами правил: какие команды и субкоманды добавлены, удалены или изменены.
+// Правила сравниваются по каноническому описанию (права, алиасы, аргументы в порядке ключей).
+public final class RuleDiff {
+    private final List<String> added;
+    private final List<String> removed;
+    private final List<String> modified;
+
+    private RuleDiff(List<String> added, List<String> removed, List<String> modified) {
+        this.added = Collections.unmodifiableList(added);
+        this.removed = Collections.unmodifiableList(removed);
+        this.modified = Collections.unmodifiableList(modified);
+    }
+
+    public static RuleDiff between(PermissionChecker before, PermissionChecker after) {
+        Map<String, String> oldRules = describe(before);
+        Map<String, String> newRules = describe(after);
+
+        List<String> added = new ArrayList<>();
+        List<String> modified = new ArrayList<>();
+        for (Map.Entry<String, String> entry : newRules.entrySet()) {
+            String previous = oldRules.get(entry.getKey());
+            if (previous == null) {
+                added.add(entry.getKey());
+            } else if (!previous.equals(entry.getValue())) {
+                modified.add(entry.getKey());
+            }
+        }
+
+        List<String> removed = new ArrayList<>();
+        for (String rule : oldRules.keySet()) {
+            if (!newRules.containsKey(rule)) {
+                removed.add(rule);
+            }
+        }
+        return new RuleDiff(added, removed, modified);
+    }
+
+    // Путь правила ("gamemode", "cmi gm") → описание
+    private static Map<String, String> describe(PermissionChecker checker) {
+        Map<String, String> rules = new TreeMap<>();
+        for (Map.Entry<String, PermissionChecker.CommandConfig> entry : checker.getCommandConfigs().entrySet()) {
+            PermissionChecker.CommandConfig config = entry.getValue();
+            StringBuilder description = new StringBuilder();
+            description.append(config.getPermission()).append('|').append(config.getAliases()).append('|');
+            describeArguments(description, config.getArguments());
+            rules.put(entry.getKey(), description.toString());
+        }
+
+        for (Map.Entry<String, PermissionChecker.SuperCommandConfig> entry : checker.getSuperCommandConfigs().entrySet()) {
+            for (Map.Entry<String, PermissionChecker.SubCommandConfig> sub : entry.getValue().getSubCommands().entrySet()) {
+                StringBuilder description = new StringBuilder();
+                description.append(entry.getValue().getPermission()).append('|').append(sub.getValue().getPermission()).append('|');
+                describeArguments(description, sub.getValue().getArguments());
+                rules.put(entry.getKey() + " " + sub.getKey(), description.toString());
+            }
+        }
+        return rules;
+    }
+
+    private static void describeArguments(StringBuilder description, Map<String, PermissionChecker.ArgumentConfig> arguments) {
+        for (Map.Entry<String, PermissionChecker.ArgumentConfig> entry : new TreeMap<>(arguments).entrySet()) {
+            PermissionChecker.ArgumentConfig argument = entry.getValue();
+            description.append(entry.getKey()).append('=').append(argument.getPermission())
+                    .append(new TreeMap<>(argument.getLists())).append(argument.getPatterns())
+                    .append(argument.getType()).append(argument.getListsFile()).append(';');
+        }
+    }
+
+    public boolean isEmpty() {
+        return added.isEmpty() && removed.isEmpty() && modified.isEmpty();
+    }
+
+    public List<String> getAdded() {
+        return added;
+    }
+
+    public List<String> getRemoved() {
+        return removed;
+    }
+
+    public List<String> getModified() {
+        return modified;
+    }
+
+    // "+2 -1 ~3" и до limit имён каждого вида
+    public String summary(int limit) {
+        if (isEmpty()) return "правила не изменились";
+
+        StringBuilder summary = new StringBuilder();
+        summary.append('+').append(added.size()).append(" -").append(removed.size()).append(" ~").append(modified.size());
+        appendNames(summary, "добавлены", added, limit);
+        appendNames(summary, "удалены", removed, limit);
+        appendNames(summary, "изменены", modified, limit);
+        return summary.toString();
+    }
+
+    private static void appendNames(StringBuilder summary, String title, List<String> names, int limit) {
+        if (names.isEmpty()) return;
+
+        summary.append("; ").append(title).append(": ");
+        for (int i = 0; i < Math.min(limit, names.size()); i++) {
+            if (i > 0) summary.append(", ");
+            summary.append(names.get(i));
+        }
+        if (names.size() > limit) {
+            summary.append(" и ещё ").append(names.size() - limit);
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package com.mishkaworld.cbu;
+
+import org.bukkit.configuration.ConfigurationSection;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Правила из одного источника: config.yml или файла commands/*.yml.
+// После разбора не изменяется, поэтому при перезагрузке фрагменты неизменённых файлов
+// переиспользуются и просто заново сливаются в общий набор.
+public final class RuleFragment {
+    private final String source;
+    private final Map<String, PermissionChecker.CommandConfig> commands;
+    private final Map<String, PermissionChecker.SuperCommandConfig> superCommands;
+
+    public RuleFragment(String source, Map<String, PermissionChecker.CommandConfig> commands,
+                        Map<String, PermissionChecker.SuperCommandConfig> superCommands) {
+        this.source = source;
+        this.commands = Collections.unmodifiableMap(commands);
+        this.superCommands = Collections.unmodifiableMap(superCommands);
+    }
+
+    public static RuleFragment parse(String source, ConfigurationSection root) {
+        Map<String, PermissionChecker.CommandConfig> commands = new HashMap<>();
+        Map<String, PermissionChecker.SuperCommandConfig> superCommands = new HashMap<>();
+        loadRegularCommands(root, commands);
+        loadSuperCommands(root, superCommands);
+        return new RuleFragment(source, commands, superCommands);
+    }
+
+    // Сливает фрагменты по порядку: обычная команда из более позднего источника заменяет прежнюю,
+    // субкоманды одной супер-команды из разных файлов объединяются
+    public static void merge(List<RuleFragment> fragments,
+                             Map<String, PermissionChecker.CommandConfig> commandConfigs,
+                             Map<String, PermissionChecker.SuperCommandConfig> superCommandConfigs) {
+        for (RuleFragment fragment : fragments) {
+            commandConfigs.putAll(fragment.commands);
+
+            for (Map.Entry<String, PermissionChecker.SuperCommandConfig> entry : fragment.superCommands.entrySet()) {
+                PermissionChecker.SuperCommandConfig existing = superCommandConfigs.get(entry.getKey());
+                if (existing == null) {
+                    superCommandConfigs.put(entry.getKey(), entry.getValue());
+                    continue;
+                }
+
+                // Фрагменты общие для нескольких снимков - собираем новый объект, не трогая исходные
+                PermissionChecker.SuperCommandConfig merged = new PermissionChecker.SuperCommandConfig();
+                String permission = entry.getValue().getPermission();
+                merged.setPermission(permission != null ? permission : existing.getPermission());
+                existing.getSubCommands().forEach(merged::addSubCommand);
+                entry.getValue().getSubCommands().forEach(merged::addSubCommand);
+                superCommandConfigs.put(entry.getKey(), merged);
+            }
+        }
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    public Map<String, PermissionChecker.CommandConfig> getCommands() {
+        return commands;
+    }
+
+    public Map<String, PermissionChecker.SuperCommandConfig> getSuperCommands() {
+        return superCommands;
+    }
+
+    // lists-file, на которые ссылаются правила фрагмента
+    public void collectListFiles(Set<String> files) {
+        for (PermissionChecker.CommandConfig config : commands.values()) {
+            PermissionChecker.collectListFiles(config.getArguments(), files);
+        }
+        for (PermissionChecker.SuperCommandConfig config : superCommands.values()) {
+            for (PermissionChecker.SubCommandConfig sub : config.getSubCommands().values()) {
+                PermissionChecker.collectListFiles(sub.getArguments(), files);
+            }
+        }
+    }
+
+    public int size() {
+        int size = commands.size();
+        for (PermissionChecker.SuperCommandConfig superCommand : superCommands.values()) {
+            size += superCommand.getSubCommands().size();
+        }
+        return size;
+    }
+
+    private static void loadRegularCommands(ConfigurationSection root, Map<String, PermissionChecker.CommandConfig> commandConfigs) {
+        ConfigurationSection commandsSection = root.getConfigurationSection("commands");
+        if (commandsSection == null) return;
+
+        for (String commandName : commandsSection.getKeys(false)) {
+            ConfigurationSection commandSection = commandsSection.getConfigurationSection(commandName);
+            if (commandSection == null) continue;
+
+            PermissionChecker.CommandConfig commandConfig = new PermissionChecker.CommandConfig();
+            commandConfig.setMainCommand(commandName);
+            commandConfig.setPermission(commandSection.getString("permission"));
+            commandConfig.setAliases(commandSection.getStringList("aliases"));
+            loadArguments(commandSection, commandConfig.getArguments());
+
+            commandConfigs.put(commandName, commandConfig);
+        }
+    }
+
+    private static void loadSuperCommands(ConfigurationSection root, Map<String, PermissionChecker.SuperCommandConfig> superCommandConfigs) {
+        ConfigurationSection superCommandsSection = root.getConfigurationSection("super-commands");
+        if (superCommandsSection == null) return;
+
+        for (String commandName : superCommandsSection.getKeys(false)) {
+            ConfigurationSection commandSection = superCommandsSection.getConfigurationSection(commandName);
+            if (commandSection == null) continue;
+
+            PermissionChecker.SuperCommandConfig superCommandConfig = new PermissionChecker.SuperCommandConfig();
+            superCommandConfig.setPermission(commandSection.getString("permission"));
+            loadSubCommands(commandSection, superCommandConfig);
+
+            superCommandConfigs.put(commandName, superCommandConfig);
+        }
+    }
+
+    private static void loadSubCommands(ConfigurationSection commandSection, PermissionChecker.SuperCommandConfig superCommandConfig) {
+        ConfigurationSection subcommandsSection = commandSection.getConfigurationSection("subcommands");
+        if (subcommandsSection == null) return;
+
+        for (String subcommandName : subcommandsSection.getKeys(false)) {
+            ConfigurationSection subcommandSection = subcommandsSection.getConfigurationSection(subcommandName);
+            if (subcommandSection == null) continue;
+
+            PermissionChecker.SubCommandConfig subCommandConfig = new PermissionChecker.SubCommandConfig();
+            subCommandConfig.setSubCommandName(subcommandName);
+            subCommandConfig.setPermission(subcommandSection.getString("permission"));
+            loadArguments(subcommandSection, subCommandConfig.getArguments());
+
+            superCommandConfig.addSubCommand(subcommandName, subCommandConfig);
+        }
+    }
+
+    private static void loadArguments(ConfigurationSection commandSection, Map<String, PermissionChecker.ArgumentConfig> arguments) {
+        ConfigurationSection argumentsSection = commandSection.getConfigurationSection("arguments");
+        if (argumentsSection == null) return;
+
+        for (String argName : argumentsSection.getKeys(false)) {
+            ConfigurationSection argSection = argumentsSection.getConfigurationSection(argName);
+            if (argSection == null) continue;
+
+            PermissionChecker.ArgumentConfig argConfig = new PermissionChecker.ArgumentConfig();
+            argConfig.setPermission(argSection.getString("permission"));
+            argConfig.setType(argSection.getString("type"));
+            argConfig.setListsFile(argSection.getString("lists-file"));
+            loadArgumentLists(argSection, argConfig);
+
+            arguments.put(argName, argConfig);
+        }
+    }
+
+    private static void loadArgumentLists(ConfigurationSection argSection, PermissionChecker.ArgumentConfig argConfig) {
+        // Шаблоны - списком строк: в ключах секции точка ("1..64") считалась бы разделителем пути
+        argConfig.setPatterns(argSection.getStringList("patterns"));
+
+        ConfigurationSection listsSection = argSection.getConfigurationSection("lists");
+        if (listsSection == null) return;
+
+        for (String listKey : listsSection.getKeys(false)) {
+            argConfig.addListValue(listKey, listsSection.getString(listKey));
+        }
+    }
+}
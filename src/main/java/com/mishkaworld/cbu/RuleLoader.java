@@ -0,0 +1,292 @@
+package com.mishkaworld.cbu;
+
+import org.bukkit.configuration.InvalidConfigurationException;
+import org.bukkit.configuration.file.FileConfiguration;
+import org.bukkit.configuration.file.YamlConfiguration;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+// Загрузка правил из config.yml и дерева commands/*.yml (файл на плагин или команду).
+// Изменённые файлы разбираются параллельно в отдельном ForkJoinPool; файлы с прежними
+// mtime и размером (или с прежним хешем содержимого) не разбираются, их фрагменты переиспользуются.
+// Хеш источника (getSourceHash) включает и содержимое lists-file, на которые ссылаются правила.
+public class RuleLoader {
+    private final File commandsDirectory;
+    private final ForkJoinPool pool;
+    private Map<String, LoadedFile> files = new HashMap<>();
+    private int lastParsed;
+    private int lastReused;
+    // Хеш YAML (config.yml и commands/) - ключ rules.cache; хеш источника - он же плюс lists-file
+    private byte[] lastRulesHash = new byte[0];
+    private byte[] lastSourceHash = new byte[0];
+    private boolean loadedFromCache;
+    private boolean sourceChanged = true;
+
+    public RuleLoader(File commandsDirectory) {
+        this.commandsDirectory = commandsDirectory;
+        this.pool = new ForkJoinPool(Math.max(1, Runtime.getRuntime().availableProcessors() - 1));
+    }
+
+    // Ошибка в любом файле прерывает загрузку целиком: перезагрузка оставит прежние правила
+    public synchronized List<RuleFragment> load(FileConfiguration mainConfig) throws IOException, InvalidConfigurationException {
+        List<RuleFragment> fragments = new ArrayList<>();
+        fragments.add(RuleFragment.parse("config.yml", mainConfig));
+
+        List<Path> paths = listRuleFiles();
+        Map<String, LoadedFile> loaded = new HashMap<>();
+        List<Future<LoadedFile>> parsing = new ArrayList<>();
+        lastReused = 0;
+        loadedFromCache = false;
+
+        for (Path path : paths) {
+            String name = nameOf(path);
+            BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            long modified = attributes.lastModifiedTime().toMillis();
+
+            LoadedFile previous = files.get(name);
+            if (previous != null && previous.modified == modified && previous.size == attributes.size()) {
+                loaded.put(name, previous);
+                lastReused++;
+            } else {
+                parsing.add(pool.submit(() -> parse(path, name, modified, attributes.size(), previous)));
+            }
+        }
+
+        lastParsed = 0;
+        for (Future<LoadedFile> future : parsing) {
+            LoadedFile file = join(future);
+            loaded.put(file.fragment.getSource(), file);
+            if (file.parsed) lastParsed++; else lastReused++;
+        }
+
+        // Порядок слияния не зависит от порядка разбора: по имени файла
+        for (Path path : paths) {
+            fragments.add(loaded.get(nameOf(path)).fragment);
+        }
+
+        // Удалённые файлы выпадают из кэша вместе со своими правилами
+        files = loaded;
+        return fragments;
+    }
+
+    // Как load, но сначала пробует двоичный кэш: при совпадении хеша config.yml и всех commands/*.yml
+    // правила читаются из rules.cache без YAML. Иначе правила разбираются и кэш перезаписывается
+    public synchronized List<RuleFragment> load(File configFile, FileConfiguration mainConfig, RuleCache cache)
+            throws IOException, InvalidConfigurationException {
+        List<Path> paths = listRuleFiles();
+        byte[] configHash = sha256(Files.readAllBytes(configFile.toPath()));
+
+        // Общий хеш: config.yml, затем имя и хеш каждого файла в порядке слияния
+        MessageDigest digest = newDigest();
+        digest.update(configHash);
+        for (Path path : paths) {
+            String name = nameOf(path);
+            byte[] hash = sha256(Files.readAllBytes(path));
+            digest.update(name.getBytes(StandardCharsets.UTF_8));
+            digest.update(hash);
+        }
+        byte[] rulesHash = digest.digest();
+
+        if (files.isEmpty()) {
+            List<RuleCache.Entry> cached = cache.read(rulesHash);
+            if (cached != null && cached.size() == paths.size() + 1) {
+                lastRulesHash = rulesHash;
+                return withSourceHash(rulesHash, useCached(paths, cached));
+            }
+        } else if (MessageDigest.isEqual(rulesHash, lastRulesHash)) {
+            // YAML не изменился с прошлой загрузки - фрагменты уже в памяти
+            return withSourceHash(rulesHash, load(mainConfig));
+        }
+
+        List<RuleFragment> fragments = load(mainConfig);
+        lastRulesHash = rulesHash;
+        withSourceHash(rulesHash, fragments);
+
+        List<RuleCache.Entry> entries = new ArrayList<>();
+        entries.add(new RuleCache.Entry(fragments.get(0), configHash));
+        for (int i = 1; i < fragments.size(); i++) {
+            RuleFragment fragment = fragments.get(i);
+            entries.add(new RuleCache.Entry(fragment, files.get(fragment.getSource()).hash));
+        }
+        try {
+            cache.write(rulesHash, entries);
+        } catch (IOException e) {
+            // Кэш только ускоряет запуск: без него правила просто разберутся из YAML в следующий раз
+        }
+        return fragments;
+    }
+
+    // Хеш источника: хеш YAML, затем путь и хеш содержимого каждого lists-file. Списки не попадают
+    // в rules.cache, но их правка должна считаться изменением правил (auto-reload, общий файл)
+    private List<RuleFragment> withSourceHash(byte[] rulesHash, List<RuleFragment> fragments) throws IOException {
+        Set<String> listFiles = new TreeSet<>();
+        for (RuleFragment fragment : fragments) {
+            fragment.collectListFiles(listFiles);
+        }
+
+        MessageDigest digest = newDigest();
+        digest.update(rulesHash);
+        File baseDirectory = commandsDirectory.getAbsoluteFile().getParentFile();
+        for (String listFile : listFiles) {
+            digest.update(listFile.getBytes(StandardCharsets.UTF_8));
+            File file = ValueListStore.resolve(baseDirectory, listFile);
+            // Отсутствующий файл - ошибка компиляции правил, здесь он просто отличается от любого содержимого
+            digest.update(file.isFile() ? sha256(Files.readAllBytes(file.toPath())) : new byte[1]);
+        }
+
+        byte[] sourceHash = digest.digest();
+        sourceChanged = !MessageDigest.isEqual(sourceHash, lastSourceHash);
+        lastSourceHash = sourceHash;
+        return fragments;
+    }
+
+    // Фрагменты из кэша сразу попадают в таблицу файлов: следующий reload их не разбирает
+    private List<RuleFragment> useCached(List<Path> paths, List<RuleCache.Entry> cached) throws IOException {
+        List<RuleFragment> fragments = new ArrayList<>();
+        Map<String, LoadedFile> loaded = new HashMap<>();
+        fragments.add(cached.get(0).fragment);
+
+        for (int i = 0; i < paths.size(); i++) {
+            RuleCache.Entry entry = cached.get(i + 1);
+            Path path = paths.get(i);
+            BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+
+            fragments.add(entry.fragment);
+            loaded.put(entry.fragment.getSource(), new LoadedFile(entry.fragment,
+                    attributes.lastModifiedTime().toMillis(), attributes.size(), entry.hash, false));
+        }
+
+        files = loaded;
+        lastParsed = 0;
+        lastReused = paths.size();
+        loadedFromCache = true;
+        return fragments;
+    }
+
+    private String nameOf(Path path) {
+        return commandsDirectory.toPath().relativize(path).toString().replace(File.separatorChar, '/');
+    }
+
+    private List<Path> listRuleFiles() throws IOException {
+        Path root = commandsDirectory.toPath();
+        if (!Files.isDirectory(root)) return new ArrayList<>();
+
+        try (Stream<Path> stream = Files.walk(root)) {
+            return stream.filter(Files::isRegularFile)
+                    .filter(path -> path.getFileName().toString().endsWith(".yml"))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private static LoadedFile parse(Path path, String name, long modified, long size, LoadedFile previous)
+            throws IOException, InvalidConfigurationException {
+        byte[] content = Files.readAllBytes(path);
+        byte[] hash = sha256(content);
+
+        // Файл "потрогали" (git checkout, копирование), но содержимое то же
+        if (previous != null && MessageDigest.isEqual(previous.hash, hash)) {
+            return new LoadedFile(previous.fragment, modified, size, hash, false);
+        }
+
+        YamlConfiguration yaml = new YamlConfiguration();
+        try {
+            yaml.loadFromString(new String(content, StandardCharsets.UTF_8));
+        } catch (InvalidConfigurationException e) {
+            throw new InvalidConfigurationException("commands/" + name + ": " + e.getMessage(), e);
+        }
+        return new LoadedFile(RuleFragment.parse(name, yaml), modified, size, hash, true);
+    }
+
+    private static LoadedFile join(Future<LoadedFile> future) throws IOException, InvalidConfigurationException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Загрузка правил прервана", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            if (cause instanceof InvalidConfigurationException) throw (InvalidConfigurationException) cause;
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            throw new IOException(cause);
+        }
+    }
+
+    static byte[] sha256(byte[] content) {
+        return newDigest().digest(content);
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public File getCommandsDirectory() {
+        return commandsDirectory;
+    }
+
+    // Статистика последней загрузки для сообщения о перезагрузке
+    public synchronized int getLastParsed() {
+        return lastParsed;
+    }
+
+    public synchronized int getLastReused() {
+        return lastReused;
+    }
+
+    public synchronized boolean isLoadedFromCache() {
+        return loadedFromCache;
+    }
+
+    // Хеш содержимого последней загрузки с кэшем: по нему SharedRuleFile не переписывает те же правила
+    public synchronized byte[] getSourceHash() {
+        return lastSourceHash.clone();
+    }
+
+    // Изменилось ли содержимое файлов правил с прошлой загрузки с кэшем
+    public synchronized boolean isSourceChanged() {
+        return sourceChanged;
+    }
+
+    public void close() {
+        pool.shutdownNow();
+    }
+
+    private static final class LoadedFile {
+        private final RuleFragment fragment;
+        private final long modified;
+        private final long size;
+        private final byte[] hash;
+        private final boolean parsed;
+
+        private LoadedFile(RuleFragment fragment, long modified, long size, byte[] hash, boolean parsed) {
+            this.fragment = fragment;
+            this.modified = modified;
+            this.size = size;
+            this.hash = hash;
+            this.parsed = parsed;
+        }
+    }
+}
@@ -0,0 +1,301 @@
+package com.mishkaworld.cbu;
+
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.bukkit.permissions.Permissible;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.GZIPInputStream;
+
+// Прогон записанных команд через правила без сервера:
+// java -cp paper.jar:CommandBlockerUltra.jar com.mishkaworld.cbu.RuleReplayTool <правила> [новые правила] <журнал>
+// Правила - папка плагина (config.yml и commands/) или отдельный config.yml. Строка журнала (можно .gz):
+// "<игрок>\t<право1,право2,...>\t<команда>"; в правах "*" - все права, "node.*" - все права node.
+// Журнал читается одним потоком пачками в ограниченную очередь и проверяется параллельно, так что
+// в памяти не больше нескольких пачек; с двумя наборами правил выводится, сколько команд стали
+// заблокированы или разрешены, по правилам. Журнал аудита плагина - другой формат (время, uuid, имя,
+// решение, правило, команда), его строки считаются пропущенными.
+public final class RuleReplayTool {
+    private static final String NOT_IN_CONFIG = "<не в конфиге>";
+    private static final int SAMPLES = 5;
+    private static final int BATCH_SIZE = 1024;
+
+    private final PermissionChecker before;
+    private final PermissionChecker after;
+    private final ThreadLocal<CommandLine> commandLines = ThreadLocal.withInitial(CommandLine::new);
+    // Одинаковые наборы прав встречаются постоянно - разбираем каждый один раз
+    private final Map<String, Permissible> senders = new ConcurrentHashMap<>();
+
+    private final LongAdder total = new LongAdder();
+    private final LongAdder malformed = new LongAdder();
+    private final LongAdder blockedBefore = new LongAdder();
+    private final LongAdder blockedAfter = new LongAdder();
+    private final Map<String, LongAdder> blockedByRule = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> newlyBlocked = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> newlyAllowed = new ConcurrentHashMap<>();
+    private final Samples newlyBlockedSamples = new Samples();
+    private final Samples newlyAllowedSamples = new Samples();
+
+    private RuleReplayTool(PermissionChecker before, PermissionChecker after) {
+        this.before = before;
+        this.after = after;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2 || args.length > 3) {
+            System.err.println("Использование: RuleReplayTool <правила> [новые правила] <журнал команд>");
+            System.exit(2);
+        }
+
+        PermissionChecker before = loadRules(new File(args[0]));
+        PermissionChecker after = args.length == 3 ? loadRules(new File(args[1])) : null;
+        File log = new File(args[args.length - 1]);
+
+        RuleReplayTool tool = new RuleReplayTool(before, after);
+        long started = System.nanoTime();
+        try (BufferedReader reader = open(log)) {
+            tool.replayAll(reader, Runtime.getRuntime().availableProcessors());
+        }
+        long millis = (System.nanoTime() - started) / 1_000_000;
+
+        for (String line : tool.report(millis)) {
+            System.out.println(line);
+        }
+    }
+
+    private static PermissionChecker loadRules(File source) throws Exception {
+        if (source.isDirectory()) {
+            YamlConfiguration config = new YamlConfiguration();
+            config.load(new File(source, "config.yml"));
+            RuleLoader loader = new RuleLoader(new File(source, "commands"));
+            try {
+                return new PermissionChecker(loader.load(config), PermissionCache.disabled(), new ValueListStore(source));
+            } finally {
+                loader.close();
+            }
+        }
+
+        YamlConfiguration config = new YamlConfiguration();
+        config.load(source);
+        return new PermissionChecker(Collections.singletonList(RuleFragment.parse(source.getName(), config)),
+                PermissionCache.disabled(), new ValueListStore(source.getAbsoluteFile().getParentFile()));
+    }
+
+    private static BufferedReader open(File log) throws IOException {
+        InputStream input = Files.newInputStream(log.toPath());
+        if (log.getName().endsWith(".gz")) {
+            // Несколько gzip-членов подряд (дописанный файл) GZIPInputStream читает все
+            input = new GZIPInputStream(input, 64 * 1024);
+        }
+        return new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8), 64 * 1024);
+    }
+
+    // Читатель кладёт пачки строк в очередь на пару пачек на поток и ждёт, если проверка отстаёт:
+    // чтение не убегает вперёд и не держит журнал в памяти
+    private void replayAll(BufferedReader reader, int threads) throws IOException, InterruptedException {
+        BlockingQueue<List<String>> batches = new ArrayBlockingQueue<>(threads * 2);
+        List<String> end = new ArrayList<>(0);
+        AtomicReference<RuntimeException> failure = new AtomicReference<>();
+
+        Thread[] workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            workers[i] = new Thread(() -> {
+                try {
+                    List<String> batch;
+                    while ((batch = batches.take()) != end) {
+                        // После ошибки очередь только опустошается, чтобы читатель не завис
+                        if (failure.get() != null) continue;
+                        try {
+                            batch.forEach(this::replay);
+                        } catch (RuntimeException e) {
+                            failure.compareAndSet(null, e);
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }, "RuleReplay-" + i);
+            workers[i].start();
+        }
+
+        try {
+            List<String> batch = new ArrayList<>(BATCH_SIZE);
+            String line;
+            while ((line = reader.readLine()) != null && failure.get() == null) {
+                batch.add(line);
+                if (batch.size() == BATCH_SIZE) {
+                    batches.put(batch);
+                    batch = new ArrayList<>(BATCH_SIZE);
+                }
+            }
+            if (!batch.isEmpty()) batches.put(batch);
+        } finally {
+            for (int i = 0; i < threads; i++) {
+                batches.put(end);
+            }
+            for (Thread worker : workers) {
+                worker.join();
+            }
+        }
+
+        if (failure.get() != null) throw failure.get();
+    }
+
+    private void replay(String line) {
+        if (line.isEmpty() || line.startsWith("#")) return;
+
+        // Ровно два табулятора: в командах их не бывает, а строка журнала аудита содержит пять
+        int first = line.indexOf('\t');
+        int second = first >= 0 ? line.indexOf('\t', first + 1) : -1;
+        if (second < 0 || line.indexOf('\t', second + 1) >= 0) {
+            malformed.increment();
+            return;
+        }
+        total.increment();
+
+        Permissible sender = senders.computeIfAbsent(line.substring(first + 1, second), RuleReplayTool::stubSender);
+        String command = line.substring(second + 1);
+        CommandLine commandLine = commandLines.get();
+
+        PermissionChecker.PermissionResult old = before.checkPermission(sender, commandLine.parse(command));
+        if (!old.allowed) {
+            blockedBefore.increment();
+            count(blockedByRule, old.rule);
+        }
+        if (after == null) return;
+
+        PermissionChecker.PermissionResult updated = after.checkPermission(sender, commandLine.parse(command));
+        if (!updated.allowed) blockedAfter.increment();
+
+        if (old.allowed && !updated.allowed) {
+            count(newlyBlocked, updated.rule);
+            if (newlyBlockedSamples.hasRoom()) {
+                newlyBlockedSamples.offer(line.substring(0, first) + ": " + command + " (" + updated.message + ")");
+            }
+        } else if (!old.allowed && updated.allowed) {
+            count(newlyAllowed, updated.rule);
+            if (newlyAllowedSamples.hasRoom()) {
+                newlyAllowedSamples.offer(line.substring(0, first) + ": " + command);
+            }
+        }
+    }
+
+    private static void count(Map<String, LongAdder> counters, String rule) {
+        counters.computeIfAbsent(rule != null ? rule : NOT_IN_CONFIG, key -> new LongAdder()).increment();
+    }
+
+    // Игрок-заглушка: отвечает только на hasPermission(String), остальное - значения по умолчанию
+    private static Permissible stubSender(String permissionList) {
+        Set<String> exact = new HashSet<>();
+        List<String> prefixes = new ArrayList<>();
+        boolean all = false;
+        for (String permission : permissionList.split(",")) {
+            permission = permission.trim().toLowerCase();
+            if (permission.isEmpty()) continue;
+            if (permission.equals("*")) {
+                all = true;
+            } else if (permission.endsWith(".*")) {
+                prefixes.add(permission.substring(0, permission.length() - 1));
+            } else {
+                exact.add(permission);
+            }
+        }
+        boolean hasAll = all;
+
+        return (Permissible) Proxy.newProxyInstance(RuleReplayTool.class.getClassLoader(), new Class<?>[]{Permissible.class},
+                (proxy, method, arguments) -> {
+                    if (method.getName().equals("hasPermission") && arguments != null && arguments[0] instanceof String) {
+                        String permission = ((String) arguments[0]).toLowerCase();
+                        if (hasAll || exact.contains(permission)) return true;
+                        for (String prefix : prefixes) {
+                            if (permission.startsWith(prefix)) return true;
+                        }
+                        return false;
+                    }
+                    if (method.getName().equals("toString")) return "stub[" + permissionList + "]";
+                    if (method.getName().equals("hashCode")) return System.identityHashCode(proxy);
+                    if (method.getName().equals("equals")) return proxy == arguments[0];
+                    return defaultValue(method.getReturnType());
+                });
+    }
+
+    private static Object defaultValue(Class<?> type) {
+        if (type == boolean.class) return false;
+        if (type == int.class) return 0;
+        if (type == long.class) return 0L;
+        if (type == double.class) return 0.0;
+        if (type == float.class) return 0.0f;
+        return null;
+    }
+
+    private List<String> report(long millis) {
+        List<String> lines = new ArrayList<>();
+        long commands = total.sum();
+        lines.add("Команд: " + commands + ", пропущено строк: " + malformed.sum() + ", время: " + millis + " мс"
+                + (millis > 0 ? " (" + commands * 1000 / millis + " команд/с)" : ""));
+
+        if (after == null) {
+            lines.add("Заблокировано: " + blockedBefore.sum());
+            appendCounters(lines, "Заблокировано по правилам:", blockedByRule);
+            return lines;
+        }
+
+        lines.add("Заблокировано: было " + blockedBefore.sum() + ", стало " + blockedAfter.sum());
+        appendCounters(lines, "Станут заблокированы:", newlyBlocked);
+        appendSamples(lines, newlyBlockedSamples);
+        appendCounters(lines, "Станут разрешены:", newlyAllowed);
+        appendSamples(lines, newlyAllowedSamples);
+        return lines;
+    }
+
+    private static void appendCounters(List<String> lines, String title, Map<String, LongAdder> counters) {
+        long sum = 0;
+        for (LongAdder counter : counters.values()) sum += counter.sum();
+        lines.add(title + " " + sum);
+
+        counters.entrySet().stream()
+                .sorted((left, right) -> Long.compare(right.getValue().sum(), left.getValue().sum()))
+                .forEach(entry -> lines.add("  " + entry.getKey() + ": " + entry.getValue().sum()));
+    }
+
+    private static void appendSamples(List<String> lines, Samples samples) {
+        for (String sample : samples.items) {
+            lines.add("    пример: " + sample);
+        }
+    }
+
+    // Первые SAMPLES примеров без блокировок между потоками
+    private static final class Samples {
+        private final ConcurrentLinkedQueue<String> items = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger size = new AtomicInteger();
+
+        boolean hasRoom() {
+            return size.get() < SAMPLES;
+        }
+
+        void offer(String sample) {
+            if (size.get() < SAMPLES && size.incrementAndGet() <= SAMPLES) {
+                items.add(sample);
+            }
+        }
+    }
+}
@@ -0,0 +1,239 @@
+package com.mishkaworld.cbu;
+
+import org.bukkit.ChatColor;
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.configuration.file.FileConfiguration;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// Неизменяемый набор скомпилированных правил и настроек. Собирается целиком вне основного потока
+// и публикуется одной записью в AtomicReference, так что обработчики (в том числе асинхронное
+// автодополнение) всегда видят либо старый, либо новый набор, но не частично собранный.
+public final class RuleSnapshot {
+    private final FileConfiguration config;
+    private final PermissionChecker permissionChecker;
+    private final String errorMessage;
+    private final int playerCompletionLimit;
+    private final boolean asyncTabComplete;
+    private final CommandMetrics metrics;
+    private final boolean rateLimitEnabled;
+    private final RateLimiter.Limit commandRateLimit;
+    private final TokenMap<RateLimiter.Limit> perCommandRateLimits;
+    private final String rateLimitMessage;
+    private final int rateLimitKickAfter;
+    private final String rateLimitKickMessage;
+    private final long tabCompleteCacheNanos;
+    private final RateLimiter.Limit tabCompleteRateLimit;
+    private final SenderPolicy commandBlockPolicy;
+    private final SenderPolicy minecartPolicy;
+    private final SenderPolicy consolePolicy;
+    private final SenderDecisionCache commandBlockDecisions;
+    private final SenderDecisionCache minecartDecisions;
+
+    // Что делать с командами не от игроков: allow - пропускать, rules - проверять правилами
+    // с правами отправителя, deny - блокировать все
+    public enum SenderPolicy {
+        ALLOW, RULES, DENY;
+
+        static SenderPolicy fromConfig(ConfigurationSection config, String path, SenderPolicy fallback) {
+            String value = config.getString(path);
+            if (value == null) return fallback;
+            try {
+                return valueOf(value.trim().toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Неизвестная политика " + path + ": " + value);
+            }
+        }
+    }
+
+    private RuleSnapshot(FileConfiguration config, PermissionChecker permissionChecker, CommandMetrics metrics) {
+        this.config = config;
+        this.permissionChecker = permissionChecker;
+        this.metrics = metrics;
+        this.errorMessage = ChatColor.translateAlternateColorCodes('&',
+                config.getString("error-message", "&cКоманды отключены на этом сервере!"));
+        this.playerCompletionLimit = Math.max(1, config.getInt("player-completion-limit", 100));
+        this.asyncTabComplete = config.getBoolean("async-tab-complete", true);
+
+        ConfigurationSection rateLimit = config.getConfigurationSection("rate-limit");
+        this.commandRateLimit = RateLimiter.Limit.fromConfig(rateLimit, RateLimiter.COMMANDS_BUCKET);
+        this.perCommandRateLimits = loadPerCommandRateLimits(rateLimit);
+        this.rateLimitEnabled = config.getBoolean("rate-limit.enabled", false)
+                && (commandRateLimit != null || !perCommandRateLimits.isEmpty());
+        this.rateLimitMessage = ChatColor.translateAlternateColorCodes('&',
+                config.getString("rate-limit.message", "&cСлишком много команд, подождите немного."));
+        this.rateLimitKickAfter = Math.max(0, config.getInt("rate-limit.kick-after", 0));
+        this.rateLimitKickMessage = ChatColor.translateAlternateColorCodes('&',
+                config.getString("rate-limit.kick-message", "&cСлишком много команд"));
+
+        this.tabCompleteCacheNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, config.getLong("tab-complete.cache-ttl-ms", 2000)));
+        this.tabCompleteRateLimit = RateLimiter.Limit.fromConfig(
+                config.getConfigurationSection("tab-complete.rate-limit"), RateLimiter.TAB_COMPLETE_BUCKET);
+
+        this.commandBlockPolicy = SenderPolicy.fromConfig(config, "command-blocks.block-policy", SenderPolicy.ALLOW);
+        this.minecartPolicy = SenderPolicy.fromConfig(config, "command-blocks.minecart-policy", SenderPolicy.ALLOW);
+        this.consolePolicy = SenderPolicy.fromConfig(config, "console-policy", SenderPolicy.ALLOW);
+        if (consolePolicy == SenderPolicy.DENY) {
+            // Иначе из консоли не выполнить даже /cbu reload
+            throw new IllegalArgumentException("console-policy: допустимы только allow и rules");
+        }
+        int decisionCacheSize = config.getInt("command-blocks.cache-size", 4096);
+        this.commandBlockDecisions = new SenderDecisionCache(decisionCacheSize);
+        this.minecartDecisions = new SenderDecisionCache(decisionCacheSize);
+    }
+
+    // Лимиты по меткам команд; поиск по участку сообщения, до разбора команды
+    private static TokenMap<RateLimiter.Limit> loadPerCommandRateLimits(ConfigurationSection rateLimit) {
+        ConfigurationSection commands = rateLimit != null ? rateLimit.getConfigurationSection("commands") : null;
+        if (commands == null) return TokenMap.empty();
+
+        Map<String, RateLimiter.Limit> limits = new HashMap<>();
+        for (String label : commands.getKeys(false)) {
+            RateLimiter.Limit limit = RateLimiter.Limit.fromConfig(commands.getConfigurationSection(label),
+                    RateLimiter.Limit.commandBucket(label));
+            if (limit != null) {
+                limits.put(label.toLowerCase(), limit);
+            }
+        }
+        return new TokenMap<>(limits, true);
+    }
+
+    public static RuleSnapshot compile(FileConfiguration config) {
+        return compile(config, CommandMetrics.DISABLED);
+    }
+
+    public static RuleSnapshot compile(FileConfiguration config, CommandMetrics metrics) {
+        return compile(config, Collections.singletonList(RuleFragment.parse("config.yml", config)), metrics);
+    }
+
+    // config - общие настройки, fragments - правила из config.yml и commands/*.yml.
+    // Общий экземпляр метрик переживает перезагрузки; при выключенном metrics.enabled подставляется DISABLED
+    public static RuleSnapshot compile(FileConfiguration config, List<RuleFragment> fragments, CommandMetrics metrics) {
+        return compile(config, fragments, metrics, null);
+    }
+
+    // valueLists - общее для всех снимков хранилище lists-file; у нового снимка свой пустой кэш решений
+    public static RuleSnapshot compile(FileConfiguration config, List<RuleFragment> fragments, CommandMetrics metrics,
+                                       ValueListStore valueLists) {
+        return compile(config, fragments, metrics, valueLists, PermissionCache.fromConfig(config));
+    }
+
+    // permissionCache - свой кэш решений; теневому кандидату передаётся PermissionCache.disabled()
+    public static RuleSnapshot compile(FileConfiguration config, List<RuleFragment> fragments, CommandMetrics metrics,
+                                       ValueListStore valueLists, PermissionCache permissionCache) {
+        CommandMetrics snapshotMetrics = config.getBoolean("metrics.enabled", false) ? metrics : CommandMetrics.DISABLED;
+        return new RuleSnapshot(config, new PermissionChecker(fragments, permissionCache, valueLists), snapshotMetrics);
+    }
+
+    public FileConfiguration getConfig() {
+        return config;
+    }
+
+    public PermissionChecker getPermissionChecker() {
+        return permissionChecker;
+    }
+
+    // Метки сервера меняют и решения для командных блоков
+    public void applyServerAliases(ServerCommandAliases aliases) {
+        permissionChecker.applyServerAliases(aliases);
+        commandBlockDecisions.clear();
+        minecartDecisions.clear();
+    }
+
+    public String getErrorMessage() {
+        return errorMessage;
+    }
+
+    public int getPlayerCompletionLimit() {
+        return playerCompletionLimit;
+    }
+
+    public boolean isAsyncTabComplete() {
+        return asyncTabComplete;
+    }
+
+    public CommandMetrics getMetrics() {
+        return metrics;
+    }
+
+    public boolean isRateLimitEnabled() {
+        return rateLimitEnabled;
+    }
+
+    // null - общий лимит команд не задан
+    public RateLimiter.Limit getCommandRateLimit() {
+        return commandRateLimit;
+    }
+
+    public TokenMap<RateLimiter.Limit> getPerCommandRateLimits() {
+        return perCommandRateLimits;
+    }
+
+    // Лимит команды по метке из сообщения; иначе - по команде конфига, в которую метка разрешается
+    // так же, как при проверке прав (namespace:, aliases, метки сервера), иначе - по метке без namespace
+    public RateLimiter.Limit findCommandRateLimit(String text, int start, int end) {
+        if (perCommandRateLimits.isEmpty()) return null;
+
+        RateLimiter.Limit limit = perCommandRateLimits.get(text, start, end);
+        if (limit != null) return limit;
+
+        CommandTrie.Node node = permissionChecker.resolveRoot(text, start, end);
+        if (node != null) {
+            limit = perCommandRateLimits.get(node.getName());
+            if (limit != null) return limit;
+        }
+
+        int colon = text.indexOf(':', start);
+        if (colon >= 0 && colon < end - 1) {
+            return perCommandRateLimits.get(text, colon + 1, end);
+        }
+        return null;
+    }
+
+    public String getRateLimitMessage() {
+        return rateLimitMessage;
+    }
+
+    public int getRateLimitKickAfter() {
+        return rateLimitKickAfter;
+    }
+
+    public String getRateLimitKickMessage() {
+        return rateLimitKickMessage;
+    }
+
+    // 0 - повторное использование последнего ответа выключено
+    public long getTabCompleteCacheNanos() {
+        return tabCompleteCacheNanos;
+    }
+
+    // null - запросы автодополнения не ограничены
+    public RateLimiter.Limit getTabCompleteRateLimit() {
+        return tabCompleteRateLimit;
+    }
+
+    public SenderPolicy getCommandBlockPolicy() {
+        return commandBlockPolicy;
+    }
+
+    public SenderPolicy getMinecartPolicy() {
+        return minecartPolicy;
+    }
+
+    public SenderPolicy getConsolePolicy() {
+        return consolePolicy;
+    }
+
+    public SenderDecisionCache getCommandBlockDecisions() {
+        return commandBlockDecisions;
+    }
+
+    public SenderDecisionCache getMinecartDecisions() {
+        return minecartDecisions;
+    }
+}
@@ -0,0 +1,167 @@
+package com.mishkaworld.cbu;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+// Следит за config.yml, commands/**/*.yml и файлами lists-file через WatchService. Пачка событий (сохранение
+// в редакторе, git pull) схлопывается: перезагрузка запускается, только когда изменения
+// затихли на debounce мс. Сама перезагрузка выполняется в потоке наблюдателя.
+public class RuleWatcher {
+    private final File dataFolder;
+    private final File commandsDirectory;
+    private final long debounceMillis;
+    private final Runnable reload;
+    private final Logger logger;
+    private final WatchService watchService;
+    // Папки регистрируются и из потока перезагрузки (watchListFiles)
+    private final Map<WatchKey, Path> directories = new ConcurrentHashMap<>();
+    private final Set<Path> watchedDirectories = ConcurrentHashMap.newKeySet();
+    private volatile Set<Path> listFiles = Collections.emptySet();
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    public RuleWatcher(File dataFolder, File commandsDirectory, long debounceMillis, Runnable reload, Logger logger)
+            throws IOException {
+        this.dataFolder = dataFolder;
+        this.commandsDirectory = commandsDirectory;
+        this.debounceMillis = Math.max(50, debounceMillis);
+        this.reload = reload;
+        this.logger = logger;
+        this.watchService = FileSystems.getDefault().newWatchService();
+
+        register(dataFolder.toPath());
+        registerTree(commandsDirectory.toPath());
+
+        this.thread = new Thread(this::run, "CBU-RuleWatcher");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    // Файлы lists-file меняются вместе с правилами: вызывается после каждой перезагрузки.
+    // Папки ранее отслеживаемых списков не снимаются - лишние события просто не подходят
+    public void watchListFiles(Collection<File> files) {
+        Set<Path> paths = new HashSet<>();
+        for (File file : files) {
+            Path path = file.getAbsoluteFile().toPath().normalize();
+            paths.add(path);
+            Path parent = path.getParent();
+            if (parent != null && Files.isDirectory(parent) && !watchedDirectories.contains(parent)) {
+                register(parent);
+            }
+        }
+        listFiles = paths;
+    }
+
+    public long getDebounceMillis() {
+        return debounceMillis;
+    }
+
+    public void close() {
+        running = false;
+        try {
+            watchService.close();
+        } catch (IOException e) {
+            logger.log(Level.FINE, "Не удалось закрыть WatchService", e);
+        }
+        thread.interrupt();
+    }
+
+    private void run() {
+        try {
+            while (running) {
+                // Ждём первое событие без таймаута, затем собираем всю пачку
+                boolean relevant = handle(watchService.take());
+                if (!relevant) continue;
+
+                WatchKey key;
+                while ((key = watchService.poll(debounceMillis, TimeUnit.MILLISECONDS)) != null) {
+                    handle(key);
+                }
+
+                try {
+                    reload.run();
+                } catch (RuntimeException e) {
+                    logger.log(Level.WARNING, "Ошибка автоматической перезагрузки правил", e);
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // Плагин выключается
+        }
+    }
+
+    // true - среди событий есть изменение файла правил
+    private boolean handle(WatchKey key) {
+        Path directory = directories.get(key);
+        boolean relevant = false;
+
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                relevant = true;
+                continue;
+            }
+            if (directory == null) continue;
+
+            Path path = directory.resolve((Path) event.context());
+            // Новые подпапки commands/ тоже нужно отслеживать
+            if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(path)
+                    && path.startsWith(commandsDirectory.toPath())) {
+                registerTree(path);
+                relevant = true;
+                continue;
+            }
+            relevant |= isRuleFile(path);
+        }
+
+        if (!key.reset()) {
+            directories.remove(key);
+        }
+        return relevant;
+    }
+
+    private boolean isRuleFile(Path path) {
+        if (listFiles.contains(path.toAbsolutePath().normalize())) return true;
+        if (path.startsWith(commandsDirectory.toPath())) {
+            return path.getFileName().toString().endsWith(".yml");
+        }
+        return path.equals(new File(dataFolder, "config.yml").toPath());
+    }
+
+    private void registerTree(Path root) {
+        if (!Files.isDirectory(root)) return;
+
+        try (Stream<Path> stream = Files.walk(root)) {
+            stream.filter(Files::isDirectory).forEach(this::register);
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Не удалось отслеживать папку " + root, e);
+        }
+    }
+
+    private void register(Path directory) {
+        try {
+            WatchKey key = directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+            directories.put(key, directory);
+            watchedDirectories.add(directory.toAbsolutePath().normalize());
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Не удалось отслеживать папку " + directory, e);
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.mishkaworld.cbu;
+
+import java.util.Arrays;
+
+// Решения для командных блоков (ключ - упакованная позиция x/y/z) и вагонеток с командным
+// блоком (ключ - id сущности). Открытая адресация на примитивных массивах: повторяющийся блок
+// каждый тик платит одним поиском вместо разбора команды. Запись хранит текст команды -
+// если его изменили, решение считается заново. Перезагрузка правил создаёт новый кэш.
+public final class SenderDecisionCache {
+    private final int mask;
+    private final int maxSize;
+    private final long[] keys;
+    private final Object[] worlds;
+    private final String[] commands;
+    private final PermissionChecker.PermissionResult[] results;
+    private int size;
+
+    public SenderDecisionCache(int maxSize) {
+        this.maxSize = Math.max(16, maxSize);
+        // Заполнение не больше половины: короткие цепочки проб
+        int capacity = Integer.highestOneBit(this.maxSize * 2 - 1) << 1;
+        this.mask = capacity - 1;
+        this.keys = new long[capacity];
+        this.worlds = new Object[capacity];
+        this.commands = new String[capacity];
+        this.results = new PermissionChecker.PermissionResult[capacity];
+    }
+
+    // Та же упаковка, что у BlockPos.asLong: x и z по 26 бит, y - 12 бит
+    public static long blockKey(int x, int y, int z) {
+        return ((long) (x & 0x3FFFFFF) << 38) | ((long) (z & 0x3FFFFFF) << 12) | (y & 0xFFF);
+    }
+
+    // null - решения нет или текст команды изменился. world сравнивается по ссылке
+    public synchronized PermissionChecker.PermissionResult get(long key, Object world, String command) {
+        int slot = find(key, world);
+        if (results[slot] == null || !commands[slot].equals(command)) return null;
+        return results[slot];
+    }
+
+    public synchronized void put(long key, Object world, String command, PermissionChecker.PermissionResult result) {
+        int slot = find(key, world);
+        if (results[slot] == null) {
+            // Блоков больше, чем помещается: проще начать заново, чем вытеснять по одному
+            if (size >= maxSize) {
+                clear();
+                slot = find(key, world);
+            }
+            size++;
+        }
+        keys[slot] = key;
+        worlds[slot] = world;
+        commands[slot] = command;
+        results[slot] = result;
+    }
+
+    public synchronized void clear() {
+        Arrays.fill(worlds, null);
+        Arrays.fill(commands, null);
+        Arrays.fill(results, null);
+        size = 0;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    // Слот с этим ключом или первый свободный
+    private int find(long key, Object world) {
+        int slot = hash(key, world) & mask;
+        while (results[slot] != null && (keys[slot] != key || worlds[slot] != world)) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private static int hash(long key, Object world) {
+        long h = key ^ (world != null ? System.identityHashCode(world) : 0) * 0x9E3779B97F4A7C15L;
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        return (int) h;
+    }
+}
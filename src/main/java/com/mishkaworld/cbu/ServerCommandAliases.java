@@ -0,0 +1,92 @@
+package com.mishkaworld.cbu;
+
+import org.bukkit.command.Command;
+import org.bukkit.command.CommandMap;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Снимок меток команд сервера: каждой метке из CommandMap ("minecraft:gamemode", "essentials:gm", "gm")
+// сопоставлены все метки того же объекта Command. Снимается в основном потоке и дальше не меняется,
+// поэтому его можно применять к новому набору правил при перезагрузке в любом потоке.
+public final class ServerCommandAliases {
+    private static final ServerCommandAliases EMPTY = new ServerCommandAliases(Collections.emptyMap());
+
+    private final Map<String, List<String>> groups;
+
+    private ServerCommandAliases(Map<String, List<String>> groups) {
+        this.groups = groups;
+    }
+
+    public static ServerCommandAliases empty() {
+        return EMPTY;
+    }
+
+    public static ServerCommandAliases capture(CommandMap commandMap) {
+        Map<Command, List<String>> labelsByCommand = new IdentityHashMap<>();
+        for (Map.Entry<String, Command> entry : commandMap.getKnownCommands().entrySet()) {
+            if (entry.getKey() == null || entry.getValue() == null) continue;
+            labelsByCommand.computeIfAbsent(entry.getValue(), command -> new ArrayList<>()).add(entry.getKey().toLowerCase());
+        }
+
+        Map<String, List<String>> groups = new HashMap<>();
+        for (Map.Entry<Command, List<String>> entry : labelsByCommand.entrySet()) {
+            List<String> labels = candidates(entry.getKey(), entry.getValue());
+            for (String key : entry.getValue()) {
+                groups.put(key, labels);
+            }
+        }
+        return new ServerCommandAliases(groups);
+    }
+
+    // Порядок поиска правила: основное имя команды, затем метки без пространства имён, затем остальные
+    private static List<String> candidates(Command command, List<String> keys) {
+        List<String> labels = new ArrayList<>();
+        if (command.getName() != null) {
+            labels.add(command.getName().toLowerCase());
+        }
+        for (String key : keys) {
+            String label = stripNamespace(key);
+            if (!labels.contains(label)) labels.add(label);
+        }
+        if (command.getAliases() != null) {
+            for (String alias : command.getAliases()) {
+                String label = alias.toLowerCase();
+                if (!labels.contains(label)) labels.add(label);
+            }
+        }
+        return Collections.unmodifiableList(labels);
+    }
+
+    private static String stripNamespace(String key) {
+        int colon = key.indexOf(':');
+        return colon < 0 ? key : key.substring(colon + 1);
+    }
+
+    public int size() {
+        return groups.size();
+    }
+
+    // Метки, которых нет среди корней дерева, сводятся к узлу правила из своей группы.
+    // Результат - одна таблица: нормализация команды стоит одного поиска
+    public TokenMap<CommandTrie.Node> resolve(CommandTrie commandTrie) {
+        Map<String, CommandTrie.Node> resolved = new HashMap<>();
+        for (Map.Entry<String, List<String>> entry : groups.entrySet()) {
+            String key = entry.getKey();
+            if (commandTrie.getRoot(key) != null) continue;
+
+            CommandTrie.Node node = commandTrie.getRoot(stripNamespace(key));
+            for (int i = 0; node == null && i < entry.getValue().size(); i++) {
+                node = commandTrie.getRoot(entry.getValue().get(i));
+            }
+            if (node != null) {
+                resolved.put(key, node);
+            }
+        }
+        return resolved.isEmpty() ? TokenMap.empty() : new TokenMap<>(resolved, true);
+    }
+}
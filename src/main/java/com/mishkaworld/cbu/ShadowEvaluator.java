@@ -0,0 +1,140 @@
+package com.mishkaworld.cbu;
+
+import org.bukkit.entity.Player;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+// Теневая проверка: каждая команда игрока после обычной проверки отдаётся кандидату
+// (config.candidate.yml) в фоновый поток. Кандидат ничего не блокирует - только считает
+// расхождения с живыми правилами по правилам и хранит последние примеры для /cbu shadow.
+// Основной поток лишь кладёт задачу в ограниченную очередь; при переполнении команда не проверяется.
+public class ShadowEvaluator {
+    private final ThreadPoolExecutor executor;
+    private final ThreadLocal<CommandLine> commandLines = ThreadLocal.withInitial(CommandLine::new);
+    private final int sampleLimit;
+    private volatile RuleSnapshot candidate;
+    private volatile String source;
+
+    private final LongAdder evaluated = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder newlyBlocked = new LongAdder();
+    private final LongAdder newlyAllowed = new LongAdder();
+    private final Map<String, LongAdder> divergenceByRule = new ConcurrentHashMap<>();
+    private final Deque<String> samples = new ArrayDeque<>();
+
+    public ShadowEvaluator(int queueSize, int sampleLimit) {
+        this.sampleLimit = Math.max(0, sampleLimit);
+        this.executor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(Math.max(16, queueSize)), runnable -> {
+                    Thread thread = new Thread(runnable, "CBU-Shadow");
+                    thread.setDaemon(true);
+                    return thread;
+                }, new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    public boolean isActive() {
+        return candidate != null;
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    public RuleSnapshot getCandidate() {
+        return candidate;
+    }
+
+    // Новый кандидат - новые счётчики: старые расхождения к нему не относятся
+    public void start(RuleSnapshot snapshot, String source) {
+        reset();
+        this.source = source;
+        this.candidate = snapshot;
+    }
+
+    public void stop() {
+        candidate = null;
+        source = null;
+    }
+
+    // Вызывается в основном потоке: только постановка в очередь
+    public void submit(Player player, String fullCommand, PermissionChecker.PermissionResult live) {
+        RuleSnapshot snapshot = candidate;
+        if (snapshot == null) return;
+
+        try {
+            executor.execute(() -> evaluate(snapshot, player, fullCommand, live));
+        } catch (RejectedExecutionException e) {
+            dropped.increment();
+        }
+    }
+
+    // Права игрока проверяются из фонового потока напрямую: кандидат собран без кэша решений,
+    // поэтому выход, смена мира и invalidate(uuid) не оставляют ему устаревших ответов
+    private void evaluate(RuleSnapshot snapshot, Player player, String fullCommand, PermissionChecker.PermissionResult live) {
+        if (snapshot != candidate) return;
+
+        PermissionChecker.PermissionResult shadow = snapshot.getPermissionChecker()
+                .checkPermission(player, commandLines.get().parse(fullCommand));
+        evaluated.increment();
+        if (shadow.allowed == live.allowed) return;
+
+        (shadow.allowed ? newlyAllowed : newlyBlocked).increment();
+        String rule = shadow.rule != null ? shadow.rule : live.rule != null ? live.rule : "<не в конфиге>";
+        divergenceByRule.computeIfAbsent(rule, key -> new LongAdder()).increment();
+
+        if (sampleLimit > 0) {
+            String sample = player.getName() + ": " + fullCommand + " - "
+                    + (live.allowed ? "разрешено" : "заблокировано") + " → "
+                    + (shadow.allowed ? "разрешено" : "заблокировано: " + shadow.message);
+            synchronized (samples) {
+                if (samples.size() == sampleLimit) samples.removeFirst();
+                samples.addLast(sample);
+            }
+        }
+    }
+
+    public void reset() {
+        evaluated.reset();
+        dropped.reset();
+        newlyBlocked.reset();
+        newlyAllowed.reset();
+        divergenceByRule.clear();
+        synchronized (samples) {
+            samples.clear();
+        }
+    }
+
+    public List<String> report(int topRules) {
+        List<String> lines = new ArrayList<>();
+        lines.add("§6Кандидат: §f" + source);
+        lines.add("§6Проверено: §f" + evaluated.sum() + ", пропущено при переполнении очереди: " + dropped.sum());
+        lines.add("§6Станут заблокированы: §c" + newlyBlocked.sum() + "§6, станут разрешены: §a" + newlyAllowed.sum());
+
+        divergenceByRule.entrySet().stream()
+                .sorted((left, right) -> Long.compare(right.getValue().sum(), left.getValue().sum()))
+                .limit(topRules)
+                .forEach(entry -> lines.add("  §f" + entry.getKey() + ": " + entry.getValue().sum()));
+
+        synchronized (samples) {
+            for (String sample : samples) {
+                lines.add("  §7" + sample);
+            }
+        }
+        return lines;
+    }
+
+    public void close() {
+        candidate = null;
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,177 @@
+package com.mishkaworld.cbu;
+
+import org.bukkit.configuration.ConfigurationSection;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+// Общий файл правил для нескольких серверов на одной машине. Writer (один сервер или
+// SharedRuleTool) публикует разобранные правила новой версией: временный файл и атомарное
+// переименование, поэтому читатель никогда не видит половину файла. Reader отображает файл
+// в память только для чтения и перечитывает его, только когда меняется версия в заголовке.
+public class SharedRuleFile {
+    private static final int MAGIC = 0x43425553; // "CBUS"
+    private static final int FORMAT = 3;
+    // magic, формат, версия
+    private static final int HEADER_SIZE = 16;
+
+    public enum Mode {
+        OFF, WRITER, READER;
+
+        public static Mode fromConfig(ConfigurationSection config) {
+            // Без кавычек YAML читает off как false
+            Object raw = config.get("shared-rules.mode", "off");
+            if (Boolean.FALSE.equals(raw)) return OFF;
+
+            String value = String.valueOf(raw);
+            try {
+                return valueOf(value.trim().toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Неизвестный shared-rules.mode: " + value);
+            }
+        }
+    }
+
+    // Правила одной опубликованной версии
+    public static final class Rules {
+        private final long version;
+        private final byte[] sourceHash;
+        private final List<RuleFragment> fragments;
+
+        private Rules(long version, byte[] sourceHash, List<RuleFragment> fragments) {
+            this.version = version;
+            this.sourceHash = sourceHash;
+            this.fragments = Collections.unmodifiableList(fragments);
+        }
+
+        public long getVersion() {
+            return version;
+        }
+
+        public List<RuleFragment> getFragments() {
+            return fragments;
+        }
+    }
+
+    private final File file;
+    // Версия, которую последний раз прочитал этот сервер
+    private volatile long loadedVersion = -1;
+
+    public SharedRuleFile(File file) {
+        this.file = file;
+    }
+
+    // Путь из shared-rules.file, относительный - от папки плагина
+    public static SharedRuleFile fromConfig(ConfigurationSection config, File dataFolder) {
+        File file = new File(config.getString("shared-rules.file", "../CommandBlockerUltra-shared/rules.bin"));
+        return new SharedRuleFile(file.isAbsolute() ? file : new File(dataFolder, file.getPath()));
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public long getLoadedVersion() {
+        return loadedVersion;
+    }
+
+    // Возвращает версию в файле. Те же правила (по хешу исходников) повторно не публикуются,
+    // иначе каждый /cbu reload на writer заставлял бы все серверы пересобирать правила
+    public synchronized long publish(byte[] sourceHash, List<RuleFragment> fragments) throws IOException {
+        Rules current = read();
+        if (current != null && Arrays.equals(current.sourceHash, sourceHash)) {
+            return current.version;
+        }
+        long version = current != null ? current.version + 1 : Math.max(1, readVersion() + 1);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 * 1024);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT);
+        out.writeLong(version);
+        RuleCache.writeBytes(out, sourceHash);
+        out.writeInt(fragments.size());
+        for (RuleFragment fragment : fragments) {
+            RuleCache.writeFragment(out, fragment);
+        }
+        out.flush();
+
+        File directory = file.getAbsoluteFile().getParentFile();
+        if (directory != null && !directory.exists()) {
+            directory.mkdirs();
+        }
+        File temp = new File(directory, file.getName() + "." + ProcessHandle.current().pid() + ".tmp");
+        Files.write(temp.toPath(), bytes.toByteArray());
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        loadedVersion = version;
+        return version;
+    }
+
+    // Дешёвая проверка для опроса: читается только заголовок. -1 - файла нет или он чужой
+    public long readVersion() {
+        if (!file.isFile()) return -1;
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            while (header.hasRemaining() && channel.read(header) >= 0) {
+                // Дочитываем заголовок целиком
+            }
+            header.flip();
+            if (header.remaining() < HEADER_SIZE || header.getInt() != MAGIC || header.getInt() != FORMAT) return -1;
+            return header.getLong();
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    public boolean isChanged() {
+        long version = readVersion();
+        return version >= 0 && version != loadedVersion;
+    }
+
+    // null - файла нет, он другого формата или повреждён
+    public Rules read() {
+        if (!file.isFile()) return null;
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC || buffer.getInt() != FORMAT) return null;
+
+            long version = buffer.getLong();
+            byte[] sourceHash = RuleCache.readBytes(buffer);
+            int count = buffer.getInt();
+            if (count < 0 || count > buffer.remaining()) return null;
+
+            List<RuleFragment> fragments = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                fragments.add(RuleCache.readFragment(buffer));
+            }
+            return new Rules(version, sourceHash, fragments);
+        } catch (IOException | BufferUnderflowException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    // Чтение для применения: запоминает версию, чтобы опрос не перечитывал её снова
+    public Rules load() {
+        Rules rules = read();
+        if (rules != null) {
+            loadedVersion = rules.version;
+        }
+        return rules;
+    }
+}
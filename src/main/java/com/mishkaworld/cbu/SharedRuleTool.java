@@ -0,0 +1,43 @@
+package com.mishkaworld.cbu;
+
+import org.bukkit.configuration.file.YamlConfiguration;
+
+import java.io.File;
+import java.util.List;
+
+// Публикация общего файла правил без запуска сервера:
+// java -cp paper.jar:CommandBlockerUltra.jar com.mishkaworld.cbu.SharedRuleTool <папка плагина> [файл]
+// Правила берутся из config.yml и commands/ указанной папки и проверяются компиляцией до записи.
+public final class SharedRuleTool {
+    private SharedRuleTool() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1 || args.length > 2) {
+            System.err.println("Использование: SharedRuleTool <папка плагина> [файл общих правил]");
+            System.exit(2);
+        }
+
+        File dataFolder = new File(args[0]);
+        File configFile = new File(dataFolder, "config.yml");
+        YamlConfiguration config = new YamlConfiguration();
+        config.load(configFile);
+
+        SharedRuleFile shared = args.length == 2
+                ? new SharedRuleFile(new File(args[1]))
+                : SharedRuleFile.fromConfig(config, dataFolder);
+
+        RuleLoader loader = new RuleLoader(new File(dataFolder, "commands"));
+        try {
+            List<RuleFragment> fragments = loader.load(configFile, config, new RuleCache(new File(dataFolder, "rules.cache")));
+            // Ошибка в шаблонах аргументов должна остановить публикацию, а не всплыть на серверах
+            RuleSnapshot.compile(config, fragments, CommandMetrics.DISABLED, new ValueListStore(dataFolder));
+
+            long version = shared.publish(loader.getSourceHash(), fragments);
+            System.out.println("Опубликовано в " + shared.getFile().getAbsolutePath() + ": версия " + version
+                    + ", источников правил: " + fragments.size());
+        } finally {
+            loader.close();
+        }
+    }
+}
@@ -2,231 +2,296 @@ package com.mishkaworld.cbu;
 
 import org.bukkit.entity.Player;
 import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerQuitEvent;
 import org.bukkit.event.server.TabCompleteEvent;
-import org.bukkit.configuration.file.FileConfiguration;
-import org.bukkit.plugin.Plugin;
 import java.util.List;
 import java.util.ArrayList;
-import java.util.stream.Collectors;
 import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
 
 public class TabCompleteManager implements Listener {
-    private final PermissionChecker permissionChecker;
+    private final Supplier<RuleSnapshot> rules;
+    private final PlayerNameIndex playerNameIndex;
+    private final RateLimiter rateLimiter;
+    // Последний ответ каждому игроку: клиент шлёт запрос на каждое нажатие клавиши
+    private final Map<UUID, LastResponse> lastResponses = new ConcurrentHashMap<>();
 
-    public TabCompleteManager(PermissionChecker permissionChecker, FileConfiguration config, Plugin plugin) {
-        this.permissionChecker = permissionChecker;
+    public TabCompleteManager(Supplier<RuleSnapshot> rules, PlayerNameIndex playerNameIndex, RateLimiter rateLimiter) {
+        this.rules = rules;
+        this.playerNameIndex = playerNameIndex;
+        this.rateLimiter = rateLimiter;
     }
 
+    // Синхронный обработчик - запасной путь, если асинхронное автодополнение выключено
+    // или событие не было обработано в AsyncTabCompleteListener
     @EventHandler
     public void onTabComplete(TabCompleteEvent event) {
         if (!isValidTabCompleteEvent(event)) return;
-        
-        String[] parts = event.getBuffer().split(" ");
-        boolean endsWithSpace = event.getBuffer().endsWith(" ");
-        
-        if (parts.length == 0) return;
-        
+
         // Очищаем стандартные предложения
         event.getCompletions().clear();
-        
+
+        if (!(event.getSender() instanceof Player)) return;
+
         // Показываем автодополнение для команд из конфига
-        handleTabCompleteFromConfig(event, parts, endsWithSpace);
+        event.getCompletions().addAll(complete((Player) event.getSender(), event.getBuffer()));
     }
 
     private boolean isValidTabCompleteEvent(TabCompleteEvent event) {
         return event != null && event.getBuffer() != null && event.getBuffer().startsWith("/");
     }
 
-    private void handleTabCompleteFromConfig(TabCompleteEvent event, String[] parts, boolean endsWithSpace) {
-        if (!(event.getSender() instanceof Player)) return;
-        
-        Player player = (Player) event.getSender();
-        String command = parts[0].substring(1);
-        
-        // Если это первая команда (только /), показываем все доступные команды и субкоманды
-        if (parts.length == 1 && !endsWithSpace) {
-            showAvailableCommands(event, player);
-            return;
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerQuit(PlayerQuitEvent event) {
+        lastResponses.remove(event.getPlayer().getUniqueId());
+    }
+
+    // Не трогает состояние сервера и не изменяет конфиг, поэтому безопасно вызывается из потока netty
+    public List<String> complete(Player player, String buffer) {
+        // Снимок правил читается один раз: весь разбор работает с одним и тем же набором
+        RuleSnapshot snapshot = rules.get();
+        CommandMetrics metrics = snapshot.getMetrics();
+        long started = metrics.isEnabled() || snapshot.getTabCompleteRateLimit() != null
+                || snapshot.getTabCompleteCacheNanos() > 0 ? System.nanoTime() : 0L;
+
+        List<String> completions = completeWithCache(snapshot, player, buffer, started);
+
+        if (metrics.isEnabled()) {
+            metrics.recordTabComplete(System.nanoTime() - started);
         }
-        
-        // Проверяем команды
-        if (handleRegularCommands(event, parts, endsWithSpace, command, player)) return;
-        if (handleSuperCommands(event, parts, endsWithSpace, command, player)) return;
+        return completions;
     }
 
-    private boolean handleRegularCommands(TabCompleteEvent event, String[] parts, boolean endsWithSpace, 
-                                       String command, Player player) {
-        // Прямая проверка
-        PermissionChecker.CommandConfig commandConfig = permissionChecker.getCommandConfigs().get(command);
-        if (commandConfig != null) {
-            handleRegularCommandTabComplete(event, parts, endsWithSpace, commandConfig, player);
-            return true;
+    private List<String> completeWithCache(RuleSnapshot snapshot, Player player, String buffer, long now) {
+        UUID uuid = player.getUniqueId();
+
+        // Лишние запросы отбрасываются пустым ответом
+        RateLimiter.Limit rateLimit = snapshot.getTabCompleteRateLimit();
+        if (rateLimit != null && rateLimiter.acquire(uuid, rateLimit, now) > 0) {
+            return new ArrayList<>();
         }
 
-        // Проверка алиасов
-        for (PermissionChecker.CommandConfig config : permissionChecker.getCommandConfigs().values()) {
-            if (config.hasAlias(command)) {
-                handleRegularCommandTabComplete(event, parts, endsWithSpace, config, player);
-                return true;
-            }
+        long cacheNanos = snapshot.getTabCompleteCacheNanos();
+        if (cacheNanos <= 0) {
+            return compute(snapshot, player, buffer, null);
+        }
+
+        LastResponse last = lastResponses.get(uuid);
+        if (last != null && last.snapshot == snapshot && now - last.createdAt <= cacheNanos) {
+            List<String> reused = last.reuse(buffer);
+            if (reused != null) return reused;
         }
 
-        return false;
+        Request request = new Request(snapshot, player, new ArrayList<>());
+        List<String> completions = compute(snapshot, player, buffer, request);
+        lastResponses.put(uuid, new LastResponse(snapshot, buffer, completions, !request.truncated, now));
+        return completions;
     }
 
-    private boolean handleSuperCommands(TabCompleteEvent event, String[] parts, boolean endsWithSpace, 
-                                     String command, Player player) {
-        // Прямая проверка
-        for (PermissionChecker.SuperCommandConfig superConfig : permissionChecker.getSuperCommandConfigs().values()) {
-            if (superConfig.getSubCommand(command) != null) {
-                handleSubCommandTabComplete(event, parts, endsWithSpace, superConfig.getSubCommand(command), player);
-                return true;
-            }
-            
-            // Проверка алиасов
-            if (superConfig.hasAlias(command)) {
-                showAvailableSubCommands(event, player, superConfig);
-                return true;
-            }
+    private List<String> compute(RuleSnapshot snapshot, Player player, String buffer, Request request) {
+        if (request == null) {
+            request = new Request(snapshot, player, new ArrayList<>());
         }
 
-        return false;
+        String[] parts = buffer.split(" ");
+        boolean endsWithSpace = buffer.endsWith(" ");
+
+        if (parts.length == 0) return request.completions;
+
+        handleTabCompleteFromConfig(request, buffer, parts, endsWithSpace);
+        return request.completions;
     }
 
-    private void showAvailableCommands(TabCompleteEvent event, Player player) {
-        String currentInput = event.getBuffer().substring(1).toLowerCase();
-        
-        // Показываем обычные команды
-        for (PermissionChecker.CommandConfig config : permissionChecker.getCommandConfigs().values()) {
-            if (hasPermission(player, config.getPermission())) {
-                addCompletionIfMatches(event, currentInput, config.getMainCommand());
-                addAliasCompletions(event, currentInput, config);
-            }
+    private void handleTabCompleteFromConfig(Request request, String buffer, String[] parts, boolean endsWithSpace) {
+        String command = parts[0].substring(1);
+
+        // Если это первая команда (только /), показываем все доступные команды и субкоманды
+        if (parts.length == 1 && !endsWithSpace) {
+            showAvailableCommands(request, buffer.substring(1).toLowerCase());
+            return;
         }
-        
-        // Показываем субкоманды из супер-команд
-        for (PermissionChecker.SuperCommandConfig superConfig : permissionChecker.getSuperCommandConfigs().values()) {
-            for (PermissionChecker.SubCommandConfig subConfig : superConfig.getSubCommands().values()) {
-                if (hasPermission(player, subConfig.getPermission())) {
-                    addCompletionIfMatches(event, currentInput, subConfig.getSubCommandName());
-                }
-            }
+
+        // Разрешаем команду одним проходом по скомпилированному дереву
+        CommandTrie commandTrie = request.permissionChecker.getCommandTrie();
+        String commandKey = command.toLowerCase();
+
+        CommandTrie.Node node = request.permissionChecker.resolveRoot(commandKey, 0, commandKey.length());
+        if (node != null && !node.isSuperCommand()) {
+            handleNodeTabComplete(request, parts, endsWithSpace, node, 0);
+            return;
         }
-    }
 
-    private void showAvailableSubCommands(TabCompleteEvent event, Player player, PermissionChecker.SuperCommandConfig superCommandConfig) {
-        String currentInput = event.getBuffer().substring(1).toLowerCase();
-        
-        for (PermissionChecker.SubCommandConfig subConfig : superCommandConfig.getSubCommands().values()) {
-            if (hasPermission(player, subConfig.getPermission())) {
-                addCompletionIfMatches(event, currentInput, subConfig.getSubCommandName());
-            }
+        CommandTrie.Node subCommandRoot = commandTrie.getSubCommandRoot(command);
+        if (subCommandRoot != null) {
+            handleNodeTabComplete(request, parts, endsWithSpace, subCommandRoot, 0);
+            return;
         }
-    }
 
-    private boolean hasPermission(Player player, String permission) {
-        return permission == null || permission.equalsIgnoreCase("none") || player.hasPermission(permission);
+        if (node != null) {
+            handleSuperCommandTabComplete(request, parts, endsWithSpace, node);
+        }
     }
 
-    private void addCompletionIfMatches(TabCompleteEvent event, String currentInput, String completion) {
-        if (currentInput.isEmpty() || completion.toLowerCase().startsWith(currentInput)) {
-            event.getCompletions().add(completion);
+    private void handleSuperCommandTabComplete(Request request, String[] parts, boolean endsWithSpace,
+                                               CommandTrie.Node superNode) {
+        int argIndex = endsWithSpace ? parts.length : parts.length - 1;
+
+        // Первый аргумент супер-команды - имя субкоманды
+        if (argIndex == 1) {
+            String currentInput = (parts.length > 1 && !endsWithSpace) ? parts[1].toLowerCase() : "";
+            showAvailableSubCommands(request, superNode, currentInput);
+            return;
         }
-    }
 
-    private void addAliasCompletions(TabCompleteEvent event, String currentInput, PermissionChecker.CommandConfig config) {
-        if (config.getAliases() == null) return;
-        
-        for (String alias : config.getAliases()) {
-            if (alias != null && hasPermission((Player) event.getSender(), config.getPermission())) {
-                addCompletionIfMatches(event, currentInput, alias);
-            }
+        CommandTrie.Node subNode = superNode.getSubCommand(parts[1]);
+        if (subNode != null) {
+            handleNodeTabComplete(request, parts, endsWithSpace, subNode, 1);
         }
     }
 
-    private void handleRegularCommandTabComplete(TabCompleteEvent event, String[] parts, boolean endsWithSpace,
-                                              PermissionChecker.CommandConfig commandConfig, Player player) {
-        int argIndex = parts.length - 1;
-        if (endsWithSpace) {
-            argIndex++;
-        }
-        
-        String argKey = "arg#" + argIndex;
-        if (argIndex < 1) return;
-        
-        PermissionChecker.ArgumentConfig argConfig = commandConfig.getArguments().get(argKey);
-        if (argConfig == null) return;
+    private void showAvailableCommands(Request request, String currentInput) {
+        // Обычные команды, их алиасы и субкоманды из супер-команд
+        addMatchingCompletions(request, request.permissionChecker.getCommandTrie().getRootCompletions(), currentInput);
+    }
 
-        String currentInput = (parts.length > argIndex && !endsWithSpace) ? parts[argIndex].toLowerCase() : "";
+    private void showAvailableSubCommands(Request request, CommandTrie.Node superNode, String currentInput) {
+        addMatchingCompletions(request, superNode.getSubCommandCompletions(), currentInput);
+    }
 
-        handleArgumentCompletion(event, player, argConfig, currentInput);
+    // Проверяем права только у вариантов из диапазона префикса
+    private void addMatchingCompletions(Request request, PrefixIndex index, String currentInput) {
+        int to = index.to(currentInput);
+        for (int i = index.from(currentInput); i < to; i++) {
+            if (request.hasPermission(index.getPermission(i))) {
+                request.completions.add(index.getValue(i));
+            }
+        }
     }
 
-    private void handleSubCommandTabComplete(TabCompleteEvent event, String[] parts, boolean endsWithSpace,
-                                          PermissionChecker.SubCommandConfig subConfig, Player player) {
-        int argIndex = parts.length - 1;
+    // offset - сколько токенов после команды занимает путь до узла (1 для субкоманды супер-команды)
+    private void handleNodeTabComplete(Request request, String[] parts, boolean endsWithSpace,
+                                       CommandTrie.Node node, int offset) {
+        int argIndex = parts.length - 1 - offset;
         if (endsWithSpace) {
             argIndex++;
         }
-        
-        String argKey = "arg#" + argIndex;
+
         if (argIndex < 1) return;
-        
-        PermissionChecker.ArgumentConfig argConfig = subConfig.getArguments().get(argKey);
-        if (argConfig == null) return;
 
-        String currentInput = (parts.length > argIndex && !endsWithSpace) ? parts[argIndex].toLowerCase() : "";
+        CommandTrie.Argument argument = node.getArgument(argIndex);
+        if (argument == null) return;
 
-        handleArgumentCompletion(event, player, argConfig, currentInput);
+        int partIndex = argIndex + offset;
+        String currentInput = (parts.length > partIndex && !endsWithSpace) ? parts[partIndex].toLowerCase() : "";
+
+        handleArgumentCompletion(request, argument, currentInput);
     }
 
-    private void handleArgumentCompletion(TabCompleteEvent event, Player player, 
-                                       PermissionChecker.ArgumentConfig argConfig, String currentInput) {
-        if (!argConfig.getLists().isEmpty()) {
-            handleListCompletion(event, player, argConfig, currentInput);
-        } else {
-            handlePlayerCompletion(event, player, argConfig, currentInput);
+    private void handleArgumentCompletion(Request request, CommandTrie.Argument argument, String currentInput) {
+        if (argument.hasList()) {
+            addMatchingCompletions(request, argument.getValueCompletions(), currentInput);
+            if (argument.getFileValues() != null) {
+                addFileCompletions(request, argument.getFileValues(), currentInput);
+            }
+        } else if (!argument.hasPatterns() && argument.getType() == null) {
+            // Аргумент только с шаблонами или типом не подсказываем - перечислить подходящие значения нельзя
+            handlePlayerCompletion(request, argument.getConfig(), currentInput);
         }
     }
 
-    private void handleListCompletion(TabCompleteEvent event, Player player, 
-                                    PermissionChecker.ArgumentConfig argConfig, String currentInput) {
-        for (Map.Entry<String, String> entry : argConfig.getLists().entrySet()) {
-            String listKey = entry.getKey();
-            String permission = entry.getValue();
-            
-            if (listKey == null) continue;
-            
-            boolean hasPermissionForValue = hasPermission(player, permission);
-            
-            if (hasPermissionForValue) {
-                if (currentInput.isEmpty() || listKey.toLowerCase().startsWith(currentInput)) {
-                    event.getCompletions().add(listKey);
-                }
+    // Из большого списка отдаём не больше player-completion-limit вариантов, распаковывая только их
+    private void addFileCompletions(Request request, CompactValueList values, String currentInput) {
+        int limit = request.snapshot.getPlayerCompletionLimit();
+        int added = 0;
+        int to = values.to(currentInput);
+        for (int i = values.from(currentInput); i < to; i++) {
+            if (!request.hasPermission(values.getPermission(i))) continue;
+            if (added == limit) {
+                request.truncated = true;
+                return;
             }
+            request.completions.add(values.getValue(i));
+            added++;
         }
     }
 
-    private void handlePlayerCompletion(TabCompleteEvent event, Player player, 
-                                     PermissionChecker.ArgumentConfig argConfig, String currentInput) {
-        boolean shouldShowPlayers = hasPermission(player, argConfig.getPermission());
-        
+    private void handlePlayerCompletion(Request request, PermissionChecker.ArgumentConfig argConfig, String currentInput) {
+        boolean shouldShowPlayers = request.hasPermission(argConfig.getPermission());
+
         if (shouldShowPlayers) {
-            List<String> players = getOnlinePlayers();
-            for (String playerName : players) {
-                if (playerName != null && (currentInput.isEmpty() || playerName.toLowerCase().startsWith(currentInput))) {
-                    event.getCompletions().add(playerName);
-                }
+            int limit = request.snapshot.getPlayerCompletionLimit();
+            int added = playerNameIndex.collect(request.player, currentInput, limit, request.completions);
+            // Обрезанный список нельзя сужать: при более длинном префиксе могли бы появиться другие имена
+            if (added >= limit) {
+                request.truncated = true;
             }
         }
     }
 
-    private List<String> getOnlinePlayers() {
-        List<String> players = new ArrayList<>();
-        for (Player player : org.bukkit.Bukkit.getOnlinePlayers()) {
-            players.add(player.getName());
+    // Состояние одного запроса автодополнения
+    private static final class Request {
+        private final RuleSnapshot snapshot;
+        private final PermissionChecker permissionChecker;
+        private final Player player;
+        private final List<String> completions;
+        private boolean truncated;
+
+        private Request(RuleSnapshot snapshot, Player player, List<String> completions) {
+            this.snapshot = snapshot;
+            this.permissionChecker = snapshot.getPermissionChecker();
+            this.player = player;
+            this.completions = completions;
+        }
+
+        private boolean hasPermission(String permission) {
+            return permissionChecker.hasPermission(player, permission);
+        }
+    }
+
+    // Ответ на предыдущий запрос игрока. Если новый буфер только дописывает символы в тот же
+    // токен, варианты - подмножество прежних, и их достаточно отфильтровать по префиксу
+    private static final class LastResponse {
+        private final RuleSnapshot snapshot;
+        private final String buffer;
+        private final List<String> completions;
+        private final boolean narrowable;
+        private final long createdAt;
+
+        private LastResponse(RuleSnapshot snapshot, String buffer, List<String> completions, boolean narrowable,
+                             long createdAt) {
+            this.snapshot = snapshot;
+            this.buffer = buffer;
+            this.completions = new ArrayList<>(completions);
+            this.narrowable = narrowable;
+            this.createdAt = createdAt;
+        }
+
+        // null - ответ не подходит и его нужно посчитать заново
+        private List<String> reuse(String newBuffer) {
+            if (newBuffer.equals(buffer)) {
+                return new ArrayList<>(completions);
+            }
+            if (!narrowable || !newBuffer.startsWith(buffer)) return null;
+
+            for (int i = buffer.length(); i < newBuffer.length(); i++) {
+                if (newBuffer.charAt(i) == ' ') return null;
+            }
+
+            // Текущий токен: после последнего пробела, а для самой команды - после '/'
+            int tokenStart = Math.max(newBuffer.lastIndexOf(' ') + 1, 1);
+            int prefixLength = newBuffer.length() - tokenStart;
+
+            List<String> narrowed = new ArrayList<>();
+            for (String completion : completions) {
+                if (completion.regionMatches(true, 0, newBuffer, tokenStart, prefixLength)) {
+                    narrowed.add(completion);
+                }
+            }
+            return narrowed;
         }
-        return players;
     }
-} 
\ No newline at end of file
+}
@@ -0,0 +1,108 @@
+package com.mishkaworld.cbu;
+
+import java.util.Map;
+
+// Неизменяемая хеш-таблица с открытой адресацией, в которой ключ можно искать
+// по участку строки (start, end) без создания подстроки.
+public final class TokenMap<V> {
+    private static final TokenMap<?> EMPTY = new TokenMap<>(Map.of(), false);
+
+    private final String[] keys;
+    private final Object[] values;
+    private final int mask;
+    private final boolean ignoreCase;
+    private final int size;
+
+    public TokenMap(Map<String, ? extends V> source, boolean ignoreCase) {
+        this.ignoreCase = ignoreCase;
+        this.size = source.size();
+
+        int capacity = 2;
+        while (capacity < source.size() * 2) capacity <<= 1;
+
+        this.keys = new String[capacity];
+        this.values = new Object[capacity];
+        this.mask = capacity - 1;
+
+        for (Map.Entry<String, ? extends V> entry : source.entrySet()) {
+            String key = entry.getKey();
+            if (key == null) continue;
+
+            int slot = hash(key, 0, key.length()) & mask;
+            while (keys[slot] != null && !matches(keys[slot], key, 0, key.length())) {
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = key;
+            values[slot] = entry.getValue();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <V> TokenMap<V> empty() {
+        return (TokenMap<V>) EMPTY;
+    }
+
+    // Индекс ячейки с ключом или -1: позволяет отличить отсутствующий ключ от ключа со значением null
+    public int indexOf(String text, int start, int end) {
+        int slot = hash(text, start, end) & mask;
+        while (keys[slot] != null) {
+            if (matches(keys[slot], text, start, end)) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    public int indexOf(CommandLine line, int token) {
+        return indexOf(line.getMessage(), line.start(token), line.end(token));
+    }
+
+    @SuppressWarnings("unchecked")
+    public V valueAt(int index) {
+        return (V) values[index];
+    }
+
+    public V get(String text, int start, int end) {
+        int index = indexOf(text, start, end);
+        return index < 0 ? null : valueAt(index);
+    }
+
+    public V get(CommandLine line, int token) {
+        return get(line.getMessage(), line.start(token), line.end(token));
+    }
+
+    public V get(String key) {
+        return get(key, 0, key.length());
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // Число ячеек: любой индекс из indexOf меньше него
+    public int capacity() {
+        return keys.length;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    private boolean matches(String key, String text, int start, int end) {
+        int length = end - start;
+        return key.length() == length && key.regionMatches(ignoreCase, 0, text, start, length);
+    }
+
+    private int hash(String text, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            if (ignoreCase) {
+                c = Character.toLowerCase(Character.toUpperCase(c));
+            }
+            hash = 31 * hash + c;
+        }
+        return hash ^ (hash >>> 16);
+    }
+}
@@ -0,0 +1,100 @@
+package com.mishkaworld.cbu;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Файлы списков значений для lists-file. Строка файла: "<значение> [право]", # - комментарий.
+// Файл разбирается один раз и делится всеми аргументами и снимками правил, пока не изменятся
+// его mtime и размер, так что перезагрузка без изменений списков ничего не перечитывает.
+public class ValueListStore {
+    private final File baseDirectory;
+    private final Map<String, LoadedList> lists = new ConcurrentHashMap<>();
+
+    // Относительные пути lists-file считаются от baseDirectory (папки плагина)
+    public ValueListStore(File baseDirectory) {
+        this.baseDirectory = baseDirectory;
+    }
+
+    // Ошибка чтения - IllegalArgumentException: перезагрузка оставит прежние правила
+    public synchronized CompactValueList get(String path) {
+        File file = resolve(path);
+        long modified = file.lastModified();
+        long size = file.length();
+
+        LoadedList loaded = lists.get(path);
+        if (loaded != null && loaded.modified == modified && loaded.size == size) {
+            return loaded.values;
+        }
+        if (!file.isFile()) {
+            throw new IllegalArgumentException("Файл списка не найден: " + file);
+        }
+
+        try {
+            CompactValueList values = read(file);
+            lists.put(path, new LoadedList(values, modified, size));
+            return values;
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Не удалось прочитать список " + file + ": " + e.getMessage(), e);
+        }
+    }
+
+    // После перезагрузки: списки, на которые больше не ссылается ни одно правило, отпускаются
+    public synchronized void retain(Set<String> paths) {
+        lists.keySet().retainAll(paths);
+    }
+
+    public Collection<Map.Entry<String, LoadedList>> entries() {
+        return lists.entrySet();
+    }
+
+    public File resolve(String path) {
+        return resolve(baseDirectory, path);
+    }
+
+    static File resolve(File baseDirectory, String path) {
+        File file = new File(path);
+        return file.isAbsolute() ? file : new File(baseDirectory, path);
+    }
+
+    private static CompactValueList read(File file) throws IOException {
+        CompactValueList.Builder builder = CompactValueList.builder();
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) continue;
+
+                String[] parts = line.split("\\s+", 2);
+                builder.add(parts[0], parts.length > 1 ? parts[1].trim() : null);
+            }
+        }
+        return builder.build();
+    }
+
+    public static final class LoadedList {
+        private final CompactValueList values;
+        private final long modified;
+        private final long size;
+
+        private LoadedList(CompactValueList values, long modified, long size) {
+            this.values = values;
+            this.modified = modified;
+            this.size = size;
+        }
+
+        public CompactValueList getValues() {
+            return values;
+        }
+
+        public long getFileSize() {
+            return size;
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.mishkaworld.cbu;
+
+import org.bukkit.entity.Player;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Видимые команды для PlayerCommandSendEvent. Профиль игрока - битовая маска имеющихся
+// у него прав из конфига; игроки с одинаковым профилем получают один и тот же готовый набор.
+public class VisibleCommandIndex {
+    private static final int MAX_PROFILES = 1024;
+
+    private final String[] permissions;
+    private final String[] names;
+    private final int[] permissionIndexes;
+    private final Map<BitSet, Set<String>> profiles = new ConcurrentHashMap<>();
+
+    public VisibleCommandIndex(Map<String, PermissionChecker.CommandConfig> commandConfigs,
+                               Map<String, PermissionChecker.SuperCommandConfig> superCommandConfigs) {
+        Map<String, Integer> permissionIds = new HashMap<>();
+        List<String> nameList = new ArrayList<>();
+        List<Integer> indexes = new ArrayList<>();
+
+        // Обычные команды вместе с алиасами
+        for (PermissionChecker.CommandConfig config : commandConfigs.values()) {
+            int permissionIndex = permissionIndex(permissionIds, config.getPermission());
+            nameList.add(config.getMainCommand());
+            indexes.add(permissionIndex);
+
+            if (config.getAliases() == null) continue;
+            for (String alias : config.getAliases()) {
+                if (alias != null) {
+                    nameList.add(alias);
+                    indexes.add(permissionIndex);
+                }
+            }
+        }
+
+        // Субкоманды супер-команд показываются как самостоятельные команды
+        for (PermissionChecker.SuperCommandConfig superConfig : superCommandConfigs.values()) {
+            for (PermissionChecker.SubCommandConfig subConfig : superConfig.getSubCommands().values()) {
+                nameList.add(subConfig.getSubCommandName());
+                indexes.add(permissionIndex(permissionIds, subConfig.getPermission()));
+            }
+        }
+
+        this.permissions = new String[permissionIds.size()];
+        for (Map.Entry<String, Integer> entry : permissionIds.entrySet()) {
+            permissions[entry.getValue()] = entry.getKey();
+        }
+        this.names = nameList.toArray(new String[0]);
+        this.permissionIndexes = indexes.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    // -1 - команда видна всем (права нет или "none")
+    private static int permissionIndex(Map<String, Integer> permissionIds, String permission) {
+        if (permission == null || permission.equalsIgnoreCase("none")) return -1;
+        return permissionIds.computeIfAbsent(permission, key -> permissionIds.size());
+    }
+
+    public Set<String> getVisibleCommands(Player player, PermissionChecker permissionChecker) {
+        BitSet profile = new BitSet(permissions.length);
+        for (int i = 0; i < permissions.length; i++) {
+            if (permissionChecker.hasPermission(player, permissions[i])) {
+                profile.set(i);
+            }
+        }
+
+        Set<String> visible = profiles.get(profile);
+        if (visible == null) {
+            if (profiles.size() >= MAX_PROFILES) {
+                profiles.clear();
+            }
+            visible = profiles.computeIfAbsent(profile, this::buildVisibleCommands);
+        }
+        return visible;
+    }
+
+    private Set<String> buildVisibleCommands(BitSet profile) {
+        Set<String> visible = new LinkedHashSet<>();
+        for (int i = 0; i < names.length; i++) {
+            int permissionIndex = permissionIndexes[i];
+            if (permissionIndex < 0 || profile.get(permissionIndex)) {
+                visible.add(names[i]);
+            }
+        }
+        return Collections.unmodifiableSet(visible);
+    }
+
+    public int getProfileCount() {
+        return profiles.size();
+    }
+}
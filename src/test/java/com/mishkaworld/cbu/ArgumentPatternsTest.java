@@ -0,0 +1,106 @@
+package com.mishkaworld.cbu;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+// Склейка шаблонов в одну альтернативу не должна менять, какое правило срабатывает
+class ArgumentPatternsTest {
+
+    @Test
+    void globEscapesRegexMetacharacters() {
+        ArgumentPatterns patterns = compile("a.b*", "[x]?", "c+d");
+
+        assertEquals(0, match(patterns, "a.b"));
+        assertEquals(0, match(patterns, "a.bcd"));
+        assertEquals(-1, match(patterns, "axb"));
+        assertEquals(1, match(patterns, "[x]1"));
+        assertEquals(-1, match(patterns, "x1"));
+        assertEquals(-1, match(patterns, "[x]"));
+        assertEquals(2, match(patterns, "c+d"));
+        assertEquals(-1, match(patterns, "ccd"));
+    }
+
+    @Test
+    void rangeBoundsAreInclusive() {
+        ArgumentPatterns patterns = compile("1..64", "..-10", "100..", "7..7");
+
+        assertEquals(0, match(patterns, "1"));
+        assertEquals(0, match(patterns, "64"));
+        assertEquals(0, match(patterns, "+5"));
+        assertEquals(-1, match(patterns, "0"));
+        assertEquals(-1, match(patterns, "65"));
+        assertEquals(1, match(patterns, "-10"));
+        assertEquals(-1, match(patterns, "-9"));
+        assertEquals(2, match(patterns, "100"));
+        assertEquals(2, match(patterns, "999999999999999999"));
+        assertEquals(-1, match(patterns, "99"));
+        assertEquals(0, match(patterns, "7"));
+        assertEquals(-1, match(patterns, "1.5"));
+        assertEquals(-1, match(patterns, "-"));
+    }
+
+    @Test
+    void emptyRangeIsRejected() {
+        assertThrows(IllegalArgumentException.class, () -> compile("10..1"));
+        assertThrows(IllegalArgumentException.class, () -> compile("^(unclosed"));
+    }
+
+    @Test
+    void backreferencesAndNamedGroupsStayOutOfTheAlternation() {
+        // Первое правило сдвигает номера групп: \1 и \k<c> в общей альтернативе указывали бы не туда
+        ArgumentPatterns patterns = compile("^(x)(y)z$", "^(a)\\1$", "^(?<c>b)\\k<c>$", "^(?i)stone$", "dirt");
+
+        assertEquals(0, match(patterns, "xyz"));
+        assertEquals(1, match(patterns, "aa"));
+        assertEquals(-1, match(patterns, "ax"));
+        assertEquals(2, match(patterns, "bb"));
+        assertEquals(-1, match(patterns, "bx"));
+        assertEquals(3, match(patterns, "STONE"));
+        assertEquals(4, match(patterns, "dirt"));
+        assertEquals(-1, match(patterns, "DIRT"));
+    }
+
+    @Test
+    void firstRuleInConfigOrderWins() {
+        ArgumentPatterns patterns = compile("^(a)\\1$ cbu.first", "a* cbu.second", "1..10 cbu.third", "^\\d+$ cbu.fourth");
+
+        assertEquals(0, match(patterns, "aa"));
+        assertEquals(1, match(patterns, "aaa"));
+        assertEquals(2, match(patterns, "5"));
+        assertEquals(3, match(patterns, "11"));
+    }
+
+    @Test
+    void permissionIsLookedUpPerPattern() {
+        ArgumentPatterns patterns = compile("diamond_* cbu.item.diamond", "  stone  ", "1..64   cbu.amount", "^iron_.*$ cbu.item.iron");
+
+        assertEquals("cbu.item.diamond", patterns.getPermission(match(patterns, "diamond_sword")));
+        assertNull(patterns.getPermission(match(patterns, "stone")));
+        assertEquals("cbu.amount", patterns.getPermission(match(patterns, "32")));
+        assertEquals("cbu.item.iron", patterns.getPermission(match(patterns, "iron_ingot")));
+        assertEquals("1..64", patterns.getSource(2));
+    }
+
+    @Test
+    void matchesTokenInsideCommandLine() {
+        ArgumentPatterns patterns = compile("diamond_*");
+        CommandLine line = new CommandLine().parse("/give Steve diamond_sword 64");
+
+        assertEquals(-1, patterns.match(line, 1));
+        assertEquals(0, patterns.match(line, 2));
+        assertEquals(-1, patterns.match(line, 3));
+    }
+
+    private static ArgumentPatterns compile(String... entries) {
+        return ArgumentPatterns.compile(Arrays.asList(entries));
+    }
+
+    private static int match(ArgumentPatterns patterns, String value) {
+        return patterns.match(value, 0, value.length());
+    }
+}
@@ -0,0 +1,100 @@
+package com.mishkaworld.cbu;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+// Таблицы: описание типа, токен и ожидаемый ответ accepts
+class ArgumentTypeTest {
+
+    @Test
+    void intRangesAroundIntegerLimits() {
+        check(new Object[][]{
+                {"int 1..64", "1", true},
+                {"int 1..64", "64", true},
+                {"int 1..64", "0", false},
+                {"int 1..64", "65", false},
+                {"int 1..64", "+64", true},
+                {"int ..2147483647", "2147483647", true},
+                {"int ..2147483647", "2147483648", false},
+                {"int -2147483648..", "-2147483648", true},
+                {"int -2147483648..", "-2147483649", false},
+                {"int", "2147483648", true},
+                {"int", "999999999999999999", true},
+                {"int", "9999999999999999999", false},
+                {"int", "-9223372036854775808", false},
+                {"int 0..0", "0", true},
+                {"int 0..0", "-0", true},
+                {"int 0..0", "+0", true},
+                {"int", "-", false},
+                {"int", "1.0", false},
+                {"int", "1e3", false},
+        });
+    }
+
+    @Test
+    void coordinatesWithRelativePrefixes() {
+        check(new Object[][]{
+                {"coord 100", "~", true},
+                {"coord 100", "^", true},
+                {"coord 100", "~10", true},
+                {"coord 100", "~-100", true},
+                {"coord 100", "^101", false},
+                {"coord 100", "~~", false},
+                {"coord 100", "~-", false},
+                {"coord 100", "-0", true},
+                {"coord 100", "-100.0", true},
+                {"coord 100", "100.5", false},
+                {"coord 100", ".5", true},
+                {"coord 100", ".", false},
+                {"coord 100", "1.2.3", false},
+                {"coord 100", "9999999999999999999", false},
+                {"coord 0", "~", true},
+                {"coord 0", "-0", true},
+                {"coord 0", "~1", false},
+                {"coord", "2147483648", true},
+        });
+    }
+
+    @Test
+    void durationsWithSeveralUnits() {
+        check(new Object[][]{
+                {"duration 1h", "1h", true},
+                {"duration 1h", "1h30m", false},
+                {"duration 1h", "59m60s", true},
+                {"duration 1h", "1h1t", false},
+                {"duration 1h", "3600", true},
+                {"duration 1h", "3601", false},
+                {"duration 2h", "1h30m", true},
+                {"duration 2h", "30m1h", true},
+                {"duration 2h", "1H30M", true},
+                {"duration 2h", "1h30", false},
+                {"duration 2h", "h", false},
+                {"duration 2h", "1x", false},
+                {"duration 2h", "-0", false},
+                {"duration <=1d", "1d", true},
+                {"duration ≤ 1d", "1d1t", false},
+                {"duration", "999999999999d", true},
+                {"duration", "1000000000000d", false},
+        });
+    }
+
+    @Test
+    void invalidSpecsAreRejected() {
+        String[] specs = {"int 64..1", "int 1-64", "int a..b", "int 1..99999999999999999999",
+                "coord -5", "coord far", "duration 1y", "duration 1h30", "float 1..2"};
+        for (String spec : specs) {
+            assertThrows(IllegalArgumentException.class, () -> ArgumentType.parse(spec));
+        }
+    }
+
+    private static void check(Object[][] cases) {
+        for (Object[] row : cases) {
+            String spec = (String) row[0];
+            String token = (String) row[1];
+            CommandLine line = new CommandLine().parse("/cmd " + token);
+            assertEquals(row[2], ArgumentType.parse(spec).accepts(line, 1), spec + " / " + token);
+        }
+    }
+}
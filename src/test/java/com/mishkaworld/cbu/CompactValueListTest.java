@@ -0,0 +1,138 @@
+package com.mishkaworld.cbu;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+// Поиск по фронтально закодированным блокам сверяется с полным перебором
+class CompactValueListTest {
+
+    @Test
+    void findsExactValuesAndTheirPermissions() {
+        CompactValueList list = CompactValueList.builder()
+                .add("diamond_sword", "cbu.item.diamond")
+                .add("stone", null)
+                .add("dirt", "cbu.item.basic")
+                .add("diamond", "cbu.item.diamond")
+                .build();
+
+        assertEquals(4, list.size());
+        assertEquals(2, list.getPermissionCount());
+        assertEquals("diamond_sword", list.getValue(index(list, "diamond_sword")));
+        assertEquals("cbu.item.diamond", list.getPermission(index(list, "diamond")));
+        assertEquals("cbu.item.basic", list.getPermission(index(list, "dirt")));
+        assertNull(list.getPermission(index(list, "stone")));
+
+        assertEquals(-1, index(list, "diamond_"));
+        assertEquals(-1, index(list, "stones"));
+        assertEquals(-1, index(list, "a"));
+        assertEquals(-1, index(list, "zzz"));
+        assertEquals(-1, index(list, ""));
+    }
+
+    @Test
+    void exactMatchIsCaseSensitive() {
+        CompactValueList list = CompactValueList.builder()
+                .add("Stone", "upper")
+                .add("stone", "lower")
+                .add("STONE_BRICKS", null)
+                .build();
+
+        assertEquals("upper", list.getPermission(index(list, "Stone")));
+        assertEquals("lower", list.getPermission(index(list, "stone")));
+        assertEquals(-1, index(list, "STONE"));
+        assertEquals(-1, index(list, "stone_bricks"));
+        assertEquals("STONE_BRICKS", list.getValue(index(list, "STONE_BRICKS")));
+    }
+
+    @Test
+    void matchesTokenInsideCommandText() {
+        CompactValueList list = valuesAcrossBlocks(100);
+        String command = "give Steve item017 5";
+
+        int index = list.indexOf(command, 11, 18);
+        assertEquals("item017", list.getValue(index));
+        assertEquals(-1, list.indexOf(command, 11, 17));
+    }
+
+    @Test
+    void findsEveryValueAcrossBlockBoundaries() {
+        CompactValueList list = valuesAcrossBlocks(100);
+        for (int i = 0; i < list.size(); i++) {
+            String value = list.getValue(i);
+            assertEquals(i, index(list, value), value);
+        }
+    }
+
+    @Test
+    void prefixRangesMatchBruteForce() {
+        CompactValueList list = valuesAcrossBlocks(100);
+        List<String> values = new ArrayList<>();
+        for (int i = 0; i < list.size(); i++) {
+            values.add(list.getValue(i));
+        }
+
+        List<String> prefixes = new ArrayList<>();
+        prefixes.add("");
+        prefixes.add("a");
+        prefixes.add("zzz");
+        for (String value : values) {
+            for (int length = 1; length <= value.length(); length++) {
+                prefixes.add(value.substring(0, length).toLowerCase(Locale.ROOT));
+            }
+        }
+
+        for (String prefix : prefixes) {
+            int expectedFrom = -1;
+            int expectedTo = -1;
+            for (int i = 0; i < values.size(); i++) {
+                if (values.get(i).toLowerCase(Locale.ROOT).startsWith(prefix)) {
+                    if (expectedFrom < 0) expectedFrom = i;
+                    expectedTo = i + 1;
+                }
+            }
+
+            int from = list.from(prefix);
+            int to = list.to(prefix);
+            if (expectedFrom < 0) {
+                assertEquals(from, to, "пустой диапазон для '" + prefix + "'");
+            } else {
+                assertEquals(expectedFrom, from, "from('" + prefix + "')");
+                assertEquals(expectedTo, to, "to('" + prefix + "')");
+            }
+        }
+    }
+
+    @Test
+    void emptyListHasNoValues() {
+        CompactValueList list = CompactValueList.builder().build();
+
+        assertEquals(0, list.size());
+        assertEquals(-1, index(list, "stone"));
+        assertEquals(0, list.from("st"));
+        assertEquals(0, list.to("st"));
+    }
+
+    // Значения с общими префиксами и в разном регистре на стыках блоков по 16
+    private static CompactValueList valuesAcrossBlocks(int count) {
+        CompactValueList.Builder builder = CompactValueList.builder();
+        for (int i = 0; i < count; i++) {
+            String value = String.format("item%03d", i);
+            builder.add(i % 5 == 0 ? value.toUpperCase(Locale.ROOT) : value, "cbu.item." + (i % 3));
+        }
+        builder.add("Item016", null);
+        builder.add("item0", null);
+        builder.add("item", null);
+        builder.add("items", null);
+        return builder.build();
+    }
+
+    private static int index(CompactValueList list, String value) {
+        return list.indexOf(value, 0, value.length());
+    }
+}
@@ -0,0 +1,109 @@
+package com.mishkaworld.cbu;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+// Время передаётся в acquire явно, поэтому часы в тестах - обычная переменная в наносекундах
+class RateLimiterTest {
+    private static final UUID PLAYER = new UUID(1, 2);
+    private static final UUID OTHER = new UUID(3, 4);
+
+    private long now = TimeUnit.DAYS.toNanos(1);
+
+    @Test
+    void refillsFractionallyOverTime() {
+        RateLimiter limiter = new RateLimiter();
+        RateLimiter.Limit limit = new RateLimiter.Limit(RateLimiter.COMMANDS_BUCKET, 2, 1);
+
+        assertEquals(0, limiter.acquire(PLAYER, limit, now));
+        assertEquals(0, limiter.acquire(PLAYER, limit, now));
+        assertEquals(1, limiter.acquire(PLAYER, limit, now));
+        assertEquals(2, limiter.acquire(PLAYER, limit, now));
+
+        advanceMillis(500);
+        assertEquals(3, limiter.acquire(PLAYER, limit, now));
+
+        advanceMillis(500);
+        assertEquals(0, limiter.acquire(PLAYER, limit, now));
+        assertEquals(1, limiter.acquire(PLAYER, limit, now));
+    }
+
+    @Test
+    void idleTimeRefillsOnlyUpToCapacity() {
+        RateLimiter limiter = new RateLimiter();
+        RateLimiter.Limit limit = new RateLimiter.Limit(RateLimiter.COMMANDS_BUCKET, 3, 10);
+
+        for (int i = 0; i < 3; i++) {
+            assertEquals(0, limiter.acquire(PLAYER, limit, now));
+        }
+        advanceMillis(60_000);
+
+        for (int i = 0; i < 3; i++) {
+            assertEquals(0, limiter.acquire(PLAYER, limit, now));
+        }
+        assertEquals(1, limiter.acquire(PLAYER, limit, now));
+    }
+
+    @Test
+    void clockGoingBackwardsDoesNotRefill() {
+        RateLimiter limiter = new RateLimiter();
+        RateLimiter.Limit limit = new RateLimiter.Limit(RateLimiter.COMMANDS_BUCKET, 1, 1);
+
+        assertEquals(0, limiter.acquire(PLAYER, limit, now));
+        advanceMillis(-10_000);
+        assertEquals(1, limiter.acquire(PLAYER, limit, now));
+    }
+
+    @Test
+    void failedSecondBucketDoesNotSpendFirst() {
+        RateLimiter limiter = new RateLimiter();
+        RateLimiter.Limit global = new RateLimiter.Limit(RateLimiter.COMMANDS_BUCKET, 3, 0);
+        RateLimiter.Limit command = new RateLimiter.Limit(RateLimiter.Limit.commandBucket("rate-limiter-test"), 1, 0);
+
+        assertEquals(0, limiter.acquire(PLAYER, global, command, now));
+        assertEquals(1, limiter.acquire(PLAYER, global, command, now));
+        assertEquals(2, limiter.acquire(PLAYER, global, command, now));
+
+        // Из общего ведёрка списан только первый, успешный вызов
+        assertEquals(0, limiter.acquire(PLAYER, global, now));
+        assertEquals(0, limiter.acquire(PLAYER, global, now));
+        assertEquals(1, limiter.acquire(PLAYER, global, now));
+    }
+
+    @Test
+    void failedFirstBucketDoesNotSpendSecond() {
+        RateLimiter limiter = new RateLimiter();
+        RateLimiter.Limit global = new RateLimiter.Limit(RateLimiter.COMMANDS_BUCKET, 1, 0);
+        RateLimiter.Limit command = new RateLimiter.Limit(RateLimiter.Limit.commandBucket("rate-limiter-test"), 2, 0);
+
+        assertEquals(0, limiter.acquire(PLAYER, global, command, now));
+        assertEquals(1, limiter.acquire(PLAYER, global, command, now));
+
+        assertEquals(0, limiter.acquire(PLAYER, command, now));
+        assertEquals(1, limiter.acquire(PLAYER, command, now));
+    }
+
+    @Test
+    void playersHaveSeparateBucketsUntilRemoved() {
+        RateLimiter limiter = new RateLimiter();
+        RateLimiter.Limit limit = new RateLimiter.Limit(RateLimiter.COMMANDS_BUCKET, 1, 0);
+
+        assertEquals(0, limiter.acquire(PLAYER, limit, now));
+        assertEquals(0, limiter.acquire(OTHER, limit, now));
+        assertEquals(1, limiter.acquire(PLAYER, limit, now));
+        assertEquals(2, limiter.size());
+
+        limiter.remove(PLAYER);
+        assertEquals(1, limiter.size());
+        assertEquals(0, limiter.acquire(PLAYER, limit, now));
+        assertEquals(1, limiter.acquire(OTHER, limit, now));
+    }
+
+    private void advanceMillis(long millis) {
+        now += TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+}